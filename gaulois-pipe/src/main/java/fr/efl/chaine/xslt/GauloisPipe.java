@@ -11,6 +11,7 @@ import fr.efl.chaine.xslt.config.CfgFile;
 import fr.efl.chaine.xslt.config.ChooseStep;
 import fr.efl.chaine.xslt.config.Config;
 import fr.efl.chaine.xslt.config.ConfigUtil;
+import fr.efl.chaine.xslt.config.FolderSource;
 import fr.efl.chaine.xslt.config.JavaStep;
 import fr.efl.chaine.xslt.config.Listener;
 import fr.efl.chaine.xslt.config.Output;
@@ -20,10 +21,34 @@ import fr.efl.chaine.xslt.config.Tee;
 import fr.efl.chaine.xslt.config.WhenEntry;
 import fr.efl.chaine.xslt.config.Xslt;
 import fr.efl.chaine.xslt.listener.HttpListener;
+import fr.efl.chaine.xslt.plan.ChoosePlan;
+import fr.efl.chaine.xslt.plan.JavaStepPlan;
+import fr.efl.chaine.xslt.plan.OutputPlan;
+import fr.efl.chaine.xslt.plan.ParamPlan;
+import fr.efl.chaine.xslt.plan.PipePlan;
+import fr.efl.chaine.xslt.plan.StepPlan;
+import fr.efl.chaine.xslt.plan.TeePlan;
+import fr.efl.chaine.xslt.plan.WhenPlan;
+import fr.efl.chaine.xslt.plan.XsltPlan;
+import fr.efl.chaine.xslt.utils.CompiledXsl;
+import fr.efl.chaine.xslt.utils.DirectoryScanner;
+import fr.efl.chaine.xslt.utils.ChunkMerger;
+import fr.efl.chaine.xslt.utils.ConversionCache;
+import fr.efl.chaine.xslt.utils.DocumentCache;
+import fr.efl.chaine.xslt.utils.DocumentPrefetcher;
 import fr.efl.chaine.xslt.utils.DoubleDestination;
+import fr.efl.chaine.xslt.utils.HeapBudget;
+import fr.efl.chaine.xslt.utils.Manifest;
+import fr.efl.chaine.xslt.utils.ParallelTeeDestination;
 import fr.efl.chaine.xslt.utils.ParametersMerger;
+import fr.efl.chaine.xslt.utils.RecordSplitter;
+import fr.efl.chaine.xslt.utils.ResultCache;
+import fr.efl.chaine.xslt.utils.StagedPipeline;
+import fr.efl.chaine.xslt.utils.StylesheetDigester;
 import fr.efl.chaine.xslt.utils.ParametrableFile;
+import fr.efl.chaine.xslt.utils.ProcessingHistory;
 import fr.efl.chaine.xslt.utils.TeeDebugDestination;
+import fr.efl.chaine.xslt.utils.XsltCache;
 import net.sf.saxon.s9api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +56,9 @@ import org.slf4j.LoggerFactory;
 import javax.xml.transform.URIResolver;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.HashMap;
@@ -41,19 +69,31 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URI;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Properties;
+import java.util.Set;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.Duration;
 import javax.xml.parsers.ParserConfigurationException;
@@ -63,10 +103,13 @@ import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.event.ProxyReceiver;
 import net.sf.saxon.event.Receiver;
+import net.sf.saxon.event.Sender;
 import net.sf.saxon.lib.FeatureKeys;
+import net.sf.saxon.lib.ParseOptions;
 import net.sf.saxon.lib.StandardErrorListener;
 import net.sf.saxon.lib.StandardLogger;
 import net.sf.saxon.trace.XSLTTraceListener;
@@ -74,10 +117,12 @@ import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.SchemaException;
 import net.sf.saxon.type.ValidationException;
 import org.apache.commons.io.output.NullOutputStream;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.EntityResolver2;
+import org.xml.sax.helpers.DefaultHandler;
 import org.xmlresolver.Resolver;
 import top.marchand.xml.gaulois.config.typing.DatatypeFactory;
 import top.marchand.xml.gaulois.impl.DefaultSaxonConfigurationFactory;
@@ -97,7 +142,9 @@ public class GauloisPipe {
     private String instanceName;
     private Config config;
     
-    private final Map<String,XsltExecutable> xslCache;
+    private final XsltCache xslCache;
+    private final AtomicLong xslResolutions;
+    private final ConcurrentMap<Pipe,PipePlan> pipePlans;
     
     private Processor processor;
     private final SaxonConfigurationFactory configurationFactory;
@@ -126,6 +173,37 @@ public class GauloisPipe {
     
     private SAXParserFactory saxParserFactory;
     private BlockingQueue<XMLReader> readers;
+    private AtomicLong readersWaitTime;
+    private HeapBudget heapBudget;
+    private ExecutorService forkService;
+    private StagedPipeline<DocumentContext> pipeline;
+    private StylesheetDigester stylesheetDigester;
+    private ResultCache resultCache;
+    /**
+     * Typed parameter values already converted in this run
+     */
+    private ConversionCache conversionCache;
+    private final ConcurrentMap<ParametrableFile,PendingManifest> pendingManifests;
+    private final AtomicLong processedInputs;
+    private final AtomicLong skippedInputs;
+    /**
+     * The average size of records of split inputs, in bytes, learned from split inputs
+     */
+    private final AtomicLong splitRecordSize;
+    /**
+     * Record size used until one has been learned
+     */
+    private static final long DEFAULT_RECORD_SIZE = 4*1024;
+    /**
+     * The file size whose heap cost is reserved for an input of a streaming pipe,
+     * that never builds a tree of it
+     */
+    private static final long STREAMING_RESERVED_SIZE = 64*1024;
+    /**
+     * Handler set on pooled XMLReaders while they are not used
+     */
+    private static final DefaultHandler NO_HANDLER = new DefaultHandler();
+    private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
             
 
     /**
@@ -158,7 +236,13 @@ public class GauloisPipe {
         if(getEntityResolver() != null) {
             saxonConfig.setConfigurationProperty(FeatureKeys.ENTITY_RESOLVER_CLASS, getEntityResolver().getClass().getName());
         }
-        xslCache = new HashMap<>();
+        xslCache = new XsltCache();
+        xslResolutions = new AtomicLong();
+        pipePlans = new ConcurrentHashMap<>();
+        pendingManifests = new ConcurrentHashMap<>();
+        processedInputs = new AtomicLong();
+        skippedInputs = new AtomicLong();
+        splitRecordSize = new AtomicLong(DEFAULT_RECORD_SIZE);
         try {
             datatypeFactory = DatatypeFactory.getInstance(saxonConfig);
             xmlDatatypeFactory = javax.xml.datatype.DatatypeFactory.newInstance();
@@ -194,7 +278,7 @@ public class GauloisPipe {
         ConfigUtil.setNbThreads(cfg, Integer.toString(nbThreads));
         cfg.verify();
         this.config = cfg;
-        documentCache = new DocumentCache(config.getMaxDocumentCacheSize());
+        documentCache = buildDocumentCache();
     }
 
     /**
@@ -221,7 +305,8 @@ public class GauloisPipe {
         initDebugDirectory();
         saxParserFactory = SAXParserFactory.newInstance();
         saxParserFactory.setNamespaceAware(true);
-        readers = new ArrayBlockingQueue<>(5);
+        readers = new ArrayBlockingQueue<>(getReadersPoolSize(config.getPipe()));
+        readersWaitTime = new AtomicLong();
         while(readers.remainingCapacity()>0) {
             XMLReader reader = saxParserFactory.newSAXParser().getXMLReader();
             reader.setEntityResolver(getEntityResolver());
@@ -230,7 +315,10 @@ public class GauloisPipe {
         errors = Collections.synchronizedList(new ArrayList<String>());
         errorListener = new GPErrorListener(errors);
         long start = System.currentTimeMillis();
-        documentCache = new DocumentCache(config.getMaxDocumentCacheSize());
+        documentCache = buildDocumentCache();
+        heapBudget = config.getPipe().getHeapBudget()>0 ? 
+                new HeapBudget(config.getPipe().getHeapBudget(), config.getPipe().getExpansionFactor()) :
+                null;
         if (this.messageListenerclass != null) {
             try {
                 this.messageListener = this.messageListenerclass.newInstance();
@@ -258,6 +346,18 @@ public class GauloisPipe {
             processor = new Processor(saxonConfig);
             xsltCompiler = processor.newXsltCompiler();
             builder = processor.newDocumentBuilder();
+            conversionCache = new ConversionCache(ConversionCache.DEFAULT_MAX_ENTRIES);
+            precompileXslts(config.getPipe());
+            getPipePlan(config.getPipe());
+            if(config.getPipe().isPipelined()) {
+                pipeline = buildPipeline(getPipePlan(config.getPipe()));
+            }
+            if(config.getPipe().isIncremental() || config.getPipe().getResultCache()!=null) {
+                stylesheetDigester = new StylesheetDigester(getUriResolver(), getCurrentDirUri());
+            }
+            if(config.getPipe().getResultCache()!=null) {
+                resultCache = new ResultCache(new File(config.getPipe().getResultCache()), config.getPipe().getResultCacheMaxSize());
+            }
 
             List<CfgFile> sourceFiles = config.getSources().getFiles();
             LOGGER.info("[" + instanceName + "] works on {} files", sourceFiles.size());
@@ -266,15 +366,21 @@ public class GauloisPipe {
                 traceListener = buildTraceListener(config.getPipe().getTraceOutput());
             }
 
-            if (config.getPipe().getNbThreads() > 1) {
+            if (!config.getSources().getFolders().isEmpty()) {
+                LOGGER.info("[" + instanceName + "] Running while scanning {} folder(s)", config.getSources().getFolders().size());
+                retCode = executesPipeWhileScanning(config.getPipe(), config.getSources().getListener());
+            } else if (config.getPipe().getNbThreads() > 1) {
+                // huge files lane runs concurrently with regular files
+                Lane hugeFilesLane = null;
                 if (config.hasFilesOverMultiThreadLimit()) {
                     List<ParametrableFile> files = new ArrayList<>(sourceFiles.size());
                     for (CfgFile f : config.getSources().getFilesOverLimit(config.getPipe().getMultithreadMaxSourceSize())) {
                         files.add(resolveInputFile(f));
                     }
                     if (!files.isEmpty()) {
-                        LOGGER.info("[" + instanceName + "] Running mono-thread for {} huge files", files.size());
-                        retCode = executesPipeOnMultiThread(config.getPipe(), files, 1, config.getSources().getListener());
+                        int hugeFilesThreads = Math.max(1, Math.min(config.getPipe().getHugeFilesThreads(), files.size()));
+                        LOGGER.info("[" + instanceName + "] Running {} huge files on {} thread(s)", files.size(), hugeFilesThreads);
+                        hugeFilesLane = startLane(config.getPipe(), files, hugeFilesThreads, false);
                     }
                 }
                 List<ParametrableFile> files = new ArrayList<>(sourceFiles.size());
@@ -283,7 +389,10 @@ public class GauloisPipe {
                 }
                 if (!files.isEmpty() || config.getSources().getListener()!=null) {
                     LOGGER.info("[" + instanceName + "] Running multi-thread for {} regular-size files", files.size());
-                    retCode = executesPipeOnMultiThread(config.getPipe(), files, config.getPipe().getNbThreads(), config.getSources().getListener());
+                    retCode = executesPipeOnMultiThread(config.getPipe(), files, config.getPipe().getNbThreads(), config.getSources().getListener(), true);
+                }
+                if (hugeFilesLane!=null) {
+                    retCode = hugeFilesLane.await() && retCode;
                 }
             } else {
                 List<ParametrableFile> files = new ArrayList<>(sourceFiles.size());
@@ -291,7 +400,7 @@ public class GauloisPipe {
                     files.add(resolveInputFile(f));
                 }
                 LOGGER.info("[" + instanceName + "] Running mono-thread on all {} files", files.size());
-                retCode = executesPipeOnMultiThread(config.getPipe(), files, 1, config.getSources().getListener());
+                retCode = executesPipeOnMultiThread(config.getPipe(), files, 1, config.getSources().getListener(), true);
             }
 
         } catch (Throwable e) {
@@ -299,6 +408,13 @@ public class GauloisPipe {
             // on sort avec des codes d'erreur non-zero
             throw e;
         } finally {
+            if(config.getSources().getListener()==null) {
+                shutdownForkService();
+                if(pipeline!=null) {
+                    pipeline.shutdown();
+                    pipeline = null;
+                }
+            }
             if(!retCode) {
                 terminateErrorCollector();
                 throw new SaxonApiException("An error occurs. See previous logs.");
@@ -309,6 +425,22 @@ public class GauloisPipe {
                 long duration = System.currentTimeMillis() - start;
                 Duration duree = javax.xml.datatype.DatatypeFactory.newInstance().newDuration(duration);
                 LOGGER.info("[" + instanceName + "] Process terminated: "+duree.toString());
+                LOGGER.info("[" + instanceName + "] "+xslCache.toString());
+                LOGGER.info("[" + instanceName + "] "+documentCache.toString());
+                LOGGER.info("[" + instanceName + "] "+conversionCache.toString());
+                if(heapBudget!=null) {
+                    LOGGER.info("[" + instanceName + "] "+heapBudget.toString());
+                }
+                if(resultCache!=null) {
+                    LOGGER.info("[" + instanceName + "] "+resultCache.toString());
+                }
+                if(config.getSources().getHistory()!=null) {
+                    saveHistory(config.getSources().getHistory());
+                }
+                if(config.getPipe().isIncremental()) {
+                    LOGGER.info("[" + instanceName + "] Incremental{processed="+processedInputs.get()+", skipped="+skippedInputs.get()+"}");
+                }
+                LOGGER.info("[" + instanceName + "] XMLReaders pool{size="+readers.size()+", waitTime="+getReadersWaitTime()+"ms}");
                 terminateErrorCollector();
             }
         } catch(Exception ex) {
@@ -316,6 +448,15 @@ public class GauloisPipe {
         }
     }
 
+    private void saveHistory(ProcessingHistory history) {
+        try {
+            history.save();
+            LOGGER.info("[" + instanceName + "] "+history.toString());
+        } catch(IOException ex) {
+            LOGGER.warn("[" + instanceName + "] unable to write "+history.getFile().getAbsolutePath(), ex);
+        }
+    }
+
     /**
      * Returns ...
      * @return the size of the document cache. Mainly used for UT
@@ -323,6 +464,32 @@ public class GauloisPipe {
     public int getDocumentCacheSize() {
         return documentCache.size();
     }
+    /**
+     * Returns the document cache, to get its hits, misses and wait time.
+     * @return The document cache. Mainly used for UT and monitoring
+     */
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+    /**
+     * Returns the total time threads have waited for a XMLReader to parse an input.
+     * If it is significant, the XMLReaders pool is too small.
+     * @return The cumulated wait time, in milliseconds
+     */
+    public long getReadersWaitTime() {
+        return readersWaitTime==null ? 0L : TimeUnit.NANOSECONDS.toMillis(readersWaitTime.get());
+    }
+    /**
+     * Returns the number of XMLReaders required to run this pipe : one per
+     * transformer thread, including huge files lane, and one per thread that 
+     * parses inputs ahead.
+     */
+    private static int getReadersPoolSize(Pipe pipe) {
+        int nbThreads = Math.max(1, pipe.getNbThreads());
+        int prefetchThreads = pipe.getPrefetch()>0 ? Math.min(pipe.getPrefetch(), nbThreads) : 0;
+        int hugeFilesThreads = nbThreads>1 ? Math.max(1, pipe.getHugeFilesThreads()) : 0;
+        return nbThreads + prefetchThreads + hugeFilesThreads;
+    }
     /**
      * Returns...
      * @return the size of XSLT cache. Mainly used by UT
@@ -330,9 +497,32 @@ public class GauloisPipe {
     public int getXsltCacheSize() {
         return xslCache.size();
     }
+    /**
+     * Returns the XSLT cache, to get its hits, misses and compile time.
+     * @return The XSLT cache. Mainly used for UT and monitoring
+     */
+    public XsltCache getXsltCache() {
+        return xslCache;
+    }
+    /**
+     * Returns the result cache, to get its hits, misses and evictions.
+     * @return The result cache, or <tt>null</tt> if pipe has none. Mainly used for UT and monitoring
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+    /**
+     * Returns the number of times a XSL href has been resolved.
+     * As resolved system ids are kept in XSLT cache, it should be the number of XSL compiled.
+     * @return The number of XSL resolutions. Mainly used for UT and monitoring
+     */
+    public long getXslResolutionCount() {
+        return xslResolutions.get();
+    }
     private ParametrableFile resolveInputFile(CfgFile file) {
         ParametrableFile ret = new ParametrableFile(file.getSource());
         ret.getParameters().putAll(file.getParams());
+        ret.setSplit(file.getSplitOn(), file.getSplitSize());
         return ret;
     }
 
@@ -346,52 +536,424 @@ public class GauloisPipe {
      * @param nbThreads the specified number of thread
      * @param processor the processor
      * @param listener The listener to start, if not null
+     * @param prefetch If inputs may be parsed ahead, according to pipe's prefetch
      * @return <tt>false</tt> if an error occurs while processing.
      */
     private boolean executesPipeOnMultiThread(
             final Pipe pipe,
             List<ParametrableFile> inputs,
             int nbThreads,
-            Listener listener) {
-        ExecutorService service = (nbThreads==1) ? 
+            Listener listener,
+            boolean prefetch) {
+        Lane lane = startLane(pipe, inputs, nbThreads, prefetch && listener==null);
+        if(listener==null) {
+            // on ajoute plus rien
+            return lane.await();
+        } else {
+            startListener(pipe, listener, lane);
+            return true;
+        }
+    }
+
+    /**
+     * Starts the HTTP listener, that submits the files it receives to <tt>lane</tt>
+     */
+    private void startListener(Pipe pipe, Listener listener, Lane lane) {
+        ExecutionContext context = new ExecutionContext(this, pipe, messageListener, lane.service);
+        final HttpListener httpListener = new HttpListener(listener.getPort(), listener.getStopKeyword(), context);
+        Runnable runner = new Runnable() {
+            @Override
+            public void run() {
+                httpListener.run();
+            }
+        };
+        new Thread(runner).start();
+    }
+
+    /**
+     * Processes sources while folders are scanned : each file is submitted as 
+     * soon as it is found, in definition order, to the huge files lane if it is
+     * over the multi-thread limit. Files are not parsed ahead, and, in incremental
+     * mode, are checked on the lane threads.
+     * Files found are counted in sources usage, so a file used several times
+     * goes to the document cache ; but uses not found yet when a file is
+     * processed can not be known, so this file may be parsed once more.
+     * @param pipe the pipe to run
+     * @param listener The listener to start once folders are scanned, if not null
+     * @return <tt>false</tt> if an error occurs while scanning or processing.
+     */
+    private boolean executesPipeWhileScanning(final Pipe pipe, Listener listener) {
+        final Lane regularLane = new Lane(pipe, newLaneService(pipe.getNbThreads()), null, pipe.isIncremental());
+        final Lane hugeFilesLane = pipe.getNbThreads()>1 ?
+                new Lane(pipe, newLaneService(Math.max(1, pipe.getHugeFilesThreads())), null, pipe.isIncremental()) :
+                null;
+        final AtomicLong found = new AtomicLong();
+        List<CfgFile> files = config.getSources().getFiles();
+        DirectoryScanner scanner = new DirectoryScanner();
+        boolean ret = true;
+        int next = 0;
+        try {
+            for(final FolderSource folder: config.getSources().getFolders()) {
+                for(; next<folder.getPosition(); next++) {
+                    CfgFile f = files.get(next);
+                    submitWhileScanning(resolveInputFile(f), f.getLength(), regularLane, hugeFilesLane);
+                }
+                LOGGER.debug("[" + instanceName + "] scanning {}", folder);
+                folder.scan(scanner, new DirectoryScanner.Handler() {
+                    @Override
+                    public void file(Path file, BasicFileAttributes attrs) {
+                        found.incrementAndGet();
+                        CfgFile cfgFile = folder.newCfgFile(file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis());
+                        config.getSources().countUsage(cfgFile.getSource());
+                        submitWhileScanning(resolveInputFile(cfgFile), attrs.size(), regularLane, hugeFilesLane);
+                    }
+                });
+            }
+            for(; next<files.size(); next++) {
+                CfgFile f = files.get(next);
+                submitWhileScanning(resolveInputFile(f), f.getLength(), regularLane, hugeFilesLane);
+            }
+        } catch(IOException ex) {
+            LOGGER.error("[" + instanceName + "] while scanning sources", ex);
+            ret = false;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("[" + instanceName + "] interrupted while scanning sources");
+            ret = false;
+        }
+        LOGGER.info("[" + instanceName + "] {} files found in folders", found.get());
+        if(listener==null) {
+            ret = regularLane.await() && ret;
+        } else {
+            startListener(pipe, listener, regularLane);
+        }
+        if(hugeFilesLane!=null) {
+            ret = hugeFilesLane.await() && ret;
+        }
+        return ret;
+    }
+    private void submitWhileScanning(ParametrableFile input, long length, Lane regularLane, Lane hugeFilesLane) {
+        if(hugeFilesLane!=null && length>hugeFilesLane.pipe.getMultithreadMaxSourceSize()) {
+            hugeFilesLane.submit(input);
+        } else {
+            regularLane.submit(input);
+        }
+    }
+
+    /**
+     * Submits <tt>inputs</tt> to a new thread pool of <tt>nbThreads</tt> threads, 
+     * and returns without waiting for them to be processed.
+     * @param pipe the pipe to run
+     * @param inputs the input files
+     * @param nbThreads the number of threads of this lane
+     * @param prefetch If inputs may be parsed ahead, according to pipe's prefetch
+     * @return The started lane
+     */
+    private Lane startLane(
+            final Pipe pipe,
+            List<ParametrableFile> inputs,
+            int nbThreads,
+            boolean prefetch) {
+        if(pipe.isIncremental()) {
+            inputs = removeUpToDate(pipe, inputs, nbThreads);
+        }
+        DocumentPrefetcher prefetcher = prefetch ? buildPrefetcher(pipe, inputs, nbThreads) : null;
+        Lane lane = new Lane(pipe, newLaneService(nbThreads), prefetcher, false);
+        for(ParametrableFile pf: inputs) {
+            lane.submit(pf);
+        }
+        return lane;
+    }
+    private ExecutorService newLaneService(int nbThreads) {
+        return (nbThreads<=1) ? 
                 Executors.newSingleThreadExecutor(getThreadFactory()): 
                 Executors.newFixedThreadPool(nbThreads, getThreadFactory());
-        // a try to solve multi-thread compiling problem...
-        // that's a pretty dirty hack, but just a try, to test...
-        if(xslCache.isEmpty() && !inputs.isEmpty()) {
-            // in the opposite case, there is only a listener, and probably the first
-            // file will be proccess alone...
+    }
+
+    /**
+     * Returns the inputs whose outputs are not up to date. Inputs are checked in
+     * parallel, as their content may have to be hashed.
+     * @param pipe the pipe to run
+     * @param inputs the input files
+     * @param nbThreads the number of threads to use
+     * @return The inputs to process
+     */
+    private List<ParametrableFile> removeUpToDate(final Pipe pipe, List<ParametrableFile> inputs, int nbThreads) {
+        if(inputs.isEmpty()) return inputs;
+        ExecutorService service = Executors.newFixedThreadPool(Math.min(nbThreads, inputs.size()), getThreadFactory());
+        List<Future<Boolean>> checks = new ArrayList<>(inputs.size());
+        try {
+            for(final ParametrableFile input: inputs) {
+                checks.add(service.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return isUpToDate(pipe, input);
+                    }
+                }));
+            }
+            List<ParametrableFile> ret = new ArrayList<>(inputs.size());
+            for(int i=0;i<inputs.size();i++) {
+                ParametrableFile input = inputs.get(i);
+                boolean upToDate;
+                try {
+                    upToDate = checks.get(i).get();
+                } catch(ExecutionException ex) {
+                    LOGGER.warn("["+instanceName+"] unable to check if "+input.toString()+" is up to date", ex.getCause());
+                    upToDate = false;
+                }
+                if(upToDate) {
+                    LOGGER.debug("["+instanceName+"] "+input.toString()+" is up to date, skipped");
+                    skippedInputs.incrementAndGet();
+                } else {
+                    ret.add(input);
+                }
+            }
+            return ret;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("["+instanceName+"] interrupted while checking inputs, all are processed");
+            return inputs;
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks if all outputs of <tt>input</tt> are up to date. If not, their
+     * manifests are deleted, and the new manifest is kept, to be written when
+     * input will have been processed.
+     * An input that has an output which is not a file is never up to date.
+     */
+    private boolean isUpToDate(Pipe pipe, ParametrableFile input) throws InvalidSyntaxException, URISyntaxException, IOException, SaxonApiException {
+        HashMap<QName,ParameterValue> parameters = ParametersMerger.addInputInParameters(ParametersMerger.merge(input.getParameters(), config.getParams()),input.getFile(), datatypeFactory);
+        PipePlan plan = getPipePlan(pipe);
+        List<File> destinations = new ArrayList<>();
+        if(!collectDestinationFiles(plan, input.getFile(), parameters, destinations)) {
+            return false;
+        }
+        Manifest manifest = new Manifest(
+                input.getFile().length(), 
+                input.getFile().lastModified(), 
+                null, 
+                getStylesheetsHash(pipe, plan, parameters), 
+                getParametersHash(parameters));
+        boolean upToDate = true;
+        for(File destination: destinations) {
+            if(!destination.isFile() || !manifest.matches(Manifest.read(destination), input.getFile())) {
+                upToDate = false;
+                break;
+            }
+        }
+        if(!upToDate) {
+            for(File destination: destinations) {
+                // a failure must not leave a manifest of a previous run
+                Manifest.getManifestFile(destination).delete();
+            }
+            manifest.getInputHash(input.getFile());
+            pendingManifests.put(input, new PendingManifest(manifest, destinations));
+        }
+        return upToDate;
+    }
+
+    /**
+     * Adds the output files of <tt>plan</tt> to <tt>destinations</tt>.
+     * @return <tt>false</tt> if an output is not a file
+     */
+    private boolean collectDestinationFiles(PipePlan plan, File inputFile, HashMap<QName,ParameterValue> parameters, List<File> destinations) throws InvalidSyntaxException, URISyntaxException {
+        if(plan.getOutput()!=null) {
+            Output output = plan.getOutput().getOutput();
+            if(output.isNullOutput() || output.isConsoleOutput()) {
+                return false;
+            }
+            destinations.add(output.getDestinationFile(inputFile, parameters));
+        }
+        if(plan.getTee()!=null) {
+            for(PipePlan p: plan.getTee().getPipes()) {
+                if(!collectDestinationFiles(p, inputFile, parameters, destinations)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the hash of the pipe definition and of all its XSLs, including
+     * the modules they import or include.
+     */
+    private String getStylesheetsHash(Pipe pipe, PipePlan plan, HashMap<QName,ParameterValue> parameters) throws IOException {
+        StringBuilder sb = new StringBuilder(pipe.toString());
+        Set<String> hrefs = new LinkedHashSet<>();
+        collectXsltHrefs(plan, parameters, hrefs);
+        for(String href: hrefs) {
+            sb.append(href).append('=').append(stylesheetDigester.digest(href)).append('\n');
+        }
+        return Manifest.hash(sb.toString());
+    }
+    private void collectXsltHrefs(PipePlan plan, HashMap<QName,ParameterValue> parameters, Set<String> hrefs) {
+        for(StepPlan step: plan.getSteps()) {
+            if(step instanceof XsltPlan) {
+                hrefs.add(ParametersMerger.processParametersReplacement(((XsltPlan)step).getHref(), parameters));
+            } else if(step instanceof ChoosePlan) {
+                for(WhenPlan when: ((ChoosePlan)step).getConditions()) {
+                    collectXsltHrefs(when.getPipe(), parameters, hrefs);
+                }
+            }
+        }
+        if(plan.getTee()!=null) {
+            for(PipePlan p: plan.getTee().getPipes()) {
+                collectXsltHrefs(p, parameters, hrefs);
+            }
+        }
+    }
+
+    /**
+     * Returns the hash of the parameters of an input, in a stable order
+     */
+    private static String getParametersHash(HashMap<QName,ParameterValue> parameters) {
+        TreeMap<String,String> sorted = new TreeMap<>();
+        for(ParameterValue pv: parameters.values()) {
+            sorted.put(pv.getKey().getClarkName(), String.valueOf(pv.getValue()));
+        }
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String,String> entry: sorted.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return Manifest.hash(sb.toString());
+    }
+
+    /**
+     * Writes the manifests of a processed input, if pipe is incremental.
+     */
+    private void writeManifests(ParametrableFile input) {
+        PendingManifest pending = pendingManifests.remove(input);
+        if(pending==null) return;
+        for(File destination: pending.destinations) {
             try {
-                buildTransformer(
-                    pipe, 
-                    inputs.get(0).getFile(), 
-                    inputs.get(0).getFile().toURI().toURL().toExternalForm(), 
-                    ParametersMerger.merge(inputs.get(0).getParameters(), config.getParams()),
-                    messageListener,null);
-            } catch(IOException | InvalidSyntaxException | URISyntaxException | SaxonApiException ex) {
-                String msg = "while pre-compiling for a multi-thread use...";
-                LOGGER.error(msg);
-                collectError(new GauloisRunException(msg, ex));
+                pending.manifest.write(destination);
+            } catch(IOException ex) {
+                LOGGER.warn("["+instanceName+"] unable to write manifest of "+destination.getPath(), ex);
             }
         }
-        for(ParametrableFile pf: inputs) {
-            final ParametrableFile fpf = pf;
+    }
+
+    /**
+     * A manifest to write when its input will have been processed
+     */
+    private static class PendingManifest {
+        private final Manifest manifest;
+        private final List<File> destinations;
+        PendingManifest(Manifest manifest, List<File> destinations) {
+            this.manifest = manifest;
+            this.destinations = destinations;
+        }
+    }
+
+    /**
+     * Returns the number of inputs processed
+     * @return The number of inputs processed
+     */
+    public long getProcessedInputsCount() {
+        return processedInputs.get();
+    }
+    /**
+     * Returns the number of inputs skipped because their outputs are up to date
+     * @return The number of skipped inputs
+     */
+    public long getSkippedInputsCount() {
+        return skippedInputs.get();
+    }
+
+    /**
+     * A thread pool inputs have been submitted to, with its prefetcher, if any.
+     */
+    private class Lane {
+        private final Pipe pipe;
+        private final ExecutorService service;
+        private final DocumentPrefetcher prefetcher;
+        private final boolean checkUpToDate;
+        /**
+         * @param checkUpToDate If each input must be checked to be up to date 
+         * before being processed, when inputs have not been checked before being submitted
+         */
+        Lane(Pipe pipe, ExecutorService service, DocumentPrefetcher prefetcher, boolean checkUpToDate) {
+            this.pipe = pipe;
+            this.service = service;
+            this.prefetcher = prefetcher;
+            this.checkUpToDate = checkUpToDate;
+        }
+        /**
+         * Submits an input to this lane
+         */
+        void submit(final ParametrableFile fpf) {
             Runnable r = new Runnable() {
                 @Override
                 public void run() {
+                    if(checkUpToDate && isUpToDateOrFails(fpf)) {
+                        return;
+                    }
+                    long reserved = 0L;
                     try {
-                        execute(pipe, fpf, messageListener);
-                    } catch(SaxonApiException | IOException | InvalidSyntaxException | URISyntaxException ex) {
+                        if(heapBudget!=null) {
+                            reserved = heapBudget.acquire(getReservedSize(fpf));
+                        }
+                        long started = System.currentTimeMillis();
+                        execute(pipe, fpf, messageListener, prefetcher);
+                        if(config.getSources().getHistory()!=null) {
+                            config.getSources().getHistory().record(fpf.getFile(), System.currentTimeMillis()-started);
+                        }
+                        processedInputs.incrementAndGet();
+                        writeManifests(fpf);
+                    } catch(SaxonApiException | IOException | InvalidSyntaxException | URISyntaxException | InterruptedException ex) {
                         String msg = "[" + instanceName + "] while processing "+fpf.getFile().getName();
                         collectError(new GauloisRunException(msg, ex, fpf.getFile()));
+                    } finally {
+                        if(prefetcher!=null && isPrefetchable(pipe, fpf)) {
+                            // if execute failed or returned before taking the document, it is still held
+                            prefetcher.release(fpf);
+                        }
+                        if(heapBudget!=null) {
+                            heapBudget.release(reserved);
+                        }
                     }
                 }
             };
             LOGGER.debug("["+instanceName+"] submitting "+fpf.getFile().getName());
             service.execute(r);
         }
-        if(listener==null) {
-            // on ajoute plus rien
+        /**
+         * Returns the file size whose heap cost is reserved while processing an input.
+         * A split input holds only the chunks in flight in memory, each one with its
+         * input tree and its result tree ; a streaming input holds no tree at all.
+         */
+        private long getReservedSize(ParametrableFile input) {
+            long length = input.getFile().length();
+            if(input.getSplitOn()!=null) {
+                long inFlight = (long)getMaxChunksInFlight(pipe)*input.getSplitSize()*splitRecordSize.get();
+                return 2*Math.min(length, inFlight);
+            }
+            if(pipe.isStreaming()) {
+                return Math.min(length, STREAMING_RESERVED_SIZE);
+            }
+            return length;
+        }
+        private boolean isUpToDateOrFails(ParametrableFile input) {
+            try {
+                if(isUpToDate(pipe, input)) {
+                    LOGGER.debug("["+instanceName+"] "+input.toString()+" is up to date, skipped");
+                    skippedInputs.incrementAndGet();
+                    return true;
+                }
+            } catch(InvalidSyntaxException | URISyntaxException | IOException | SaxonApiException ex) {
+                LOGGER.warn("["+instanceName+"] unable to check if "+input.toString()+" is up to date", ex);
+            }
+            return false;
+        }
+        /**
+         * Waits for all inputs submitted to this lane to be processed
+         * @return <tt>false</tt> if interrupted
+         */
+        boolean await() {
             service.shutdown();
             try {
                 service.awaitTermination(5, TimeUnit.HOURS);
@@ -399,19 +961,50 @@ public class GauloisPipe {
             } catch (InterruptedException ex) {
                 LOGGER.error("[" + instanceName + "] multi-thread processing interrupted, 5 hour limit exceed.");
                 return false;
-            }
-        } else {
-            ExecutionContext context = new ExecutionContext(this, pipe, messageListener, service);
-            final HttpListener httpListener = new HttpListener(listener.getPort(), listener.getStopKeyword(), context);
-            Runnable runner = new Runnable() {
-                @Override
-                public void run() {
-                    httpListener.run();
+            } finally {
+                if(prefetcher!=null) {
+                    prefetcher.shutdown();
+                    LOGGER.info("[" + instanceName + "] "+prefetcher.toString());
                 }
-            };
-            new Thread(runner).start();
-            return true;
+            }
+        }
+    }
+
+    /**
+     * Builds the prefetcher that parses <tt>inputs</tt> ahead, if pipe requires it.
+     * Only inputs that are not cached and are under the multi-thread limit are parsed ahead.
+     * @return The started prefetcher, or <tt>null</tt> if there is nothing to parse ahead
+     */
+    private DocumentPrefetcher buildPrefetcher(Pipe pipe, List<ParametrableFile> inputs, int nbThreads) {
+        if(pipe.getPrefetch()<=0) return null;
+        List<ParametrableFile> toPrefetch = new ArrayList<>(inputs.size());
+        for(ParametrableFile pf: inputs) {
+            if(isPrefetchable(pipe, pf)) {
+                toPrefetch.add(pf);
+            }
         }
+        if(toPrefetch.isEmpty()) return null;
+        DocumentPrefetcher prefetcher = new DocumentPrefetcher(
+                pipe.getPrefetch(), 
+                pipe.getPrefetchMaxSize(), 
+                Math.min(pipe.getPrefetch(), nbThreads), 
+                new DocumentPrefetcher.Loader() {
+                    @Override
+                    public XdmNode load(ParametrableFile input) throws Exception {
+                        return loadDocument(input);
+                    }
+                }, 
+                getThreadFactory());
+        LOGGER.debug("[" + instanceName + "] parsing ahead {} files", toPrefetch.size());
+        prefetcher.start(toPrefetch);
+        return prefetcher;
+    }
+    private boolean isPrefetchable(Pipe pipe, ParametrableFile input) {
+        return !pipe.isStreaming()
+                && !input.getAvoidCache() 
+                && input.getSplitOn()==null
+                && config.getSources().getFileUsage(input.getFile())<=1 
+                && input.getFile().length()<=pipe.getMultithreadMaxSourceSize();
     }
 
     /**
@@ -479,75 +1072,130 @@ public class GauloisPipe {
      */
     public void execute(Pipe pipe, ParametrableFile input, MessageListener listener, Map<String,OutputStream> ... outputs)
             throws SaxonApiException, MalformedURLException, InvalidSyntaxException, URISyntaxException, FileNotFoundException, IOException {
+        execute(pipe, input, listener, null, outputs);
+    }
+
+    private void execute(Pipe pipe, ParametrableFile input, MessageListener listener, DocumentPrefetcher prefetcher, Map<String,OutputStream> ... outputs)
+            throws SaxonApiException, MalformedURLException, InvalidSyntaxException, URISyntaxException, FileNotFoundException, IOException {
         if(outputs.length>1) {
             throw new InvalidSyntaxException("Only one outputs map is allowed.");
         }
+        if(resultCache==null || outputs.length>0 || pipe!=config.getPipe()) {
+            transform(pipe, input, listener, prefetcher, outputs);
+            return;
+        }
+        List<File> destinations = new ArrayList<>();
+        HashMap<QName,ParameterValue> parameters = ParametersMerger.addInputInParameters(ParametersMerger.merge(input.getParameters(), config.getParams()),input.getFile(), datatypeFactory);
+        PipePlan plan = getPipePlan(pipe);
+        if(!collectDestinationFiles(plan, input.getFile(), parameters, destinations)) {
+            transform(pipe, input, listener, prefetcher, outputs);
+            return;
+        }
+        String key = getResultKey(pipe, plan, input, parameters);
+        if(resultCache.restore(key, destinations)) {
+            LOGGER.info("["+instanceName+"] - "+input.toString()+" - outputs restored from result cache");
+            return;
+        }
+        transform(pipe, input, listener, prefetcher, outputs);
+        try {
+            resultCache.store(key, destinations);
+        } catch(IOException ex) {
+            LOGGER.warn("["+instanceName+"] unable to store outputs of "+input.toString()+" in result cache", ex);
+        }
+    }
+
+    /**
+     * Returns the result cache key of an input : the hash of its content, of 
+     * its effective parameters, and of the pipe. Input location pseudo-parameters
+     * (<tt>input-name</tt>, ...) are part of the key, unless the pipe explicitly
+     * ignores them ; then, identical contents under different paths share the same key.
+     */
+    private String getResultKey(Pipe pipe, PipePlan plan, ParametrableFile input, HashMap<QName,ParameterValue> parameters) throws IOException {
+        HashMap<QName,ParameterValue> keyParameters = parameters;
+        if(pipe.isResultCacheIgnoreLocation()) {
+            keyParameters = new HashMap<>(parameters);
+            keyParameters.remove(ParametersMerger.INPUT_NAME);
+            keyParameters.remove(ParametersMerger.INPUT_BASENAME);
+            keyParameters.remove(ParametersMerger.INPUT_EXTENSION);
+            keyParameters.remove(ParametersMerger.INPUT_ABSOLUTE);
+            keyParameters.remove(ParametersMerger.INPUT_RELATIVE_FILE);
+            keyParameters.remove(ParametersMerger.INPUT_RELATIVE_DIR);
+        }
+        return Manifest.hash(
+                Manifest.hash(input.getFile())
+                +getStylesheetsHash(pipe, plan, parameters)
+                +getParametersHash(keyParameters));
+    }
+
+    private void transform(Pipe pipe, ParametrableFile input, MessageListener listener, DocumentPrefetcher prefetcher, Map<String,OutputStream> ... outputs)
+            throws SaxonApiException, MalformedURLException, InvalidSyntaxException, URISyntaxException, FileNotFoundException, IOException {
         // sets the EntityResolver in a ThreadLocal, to be used by generated XMLReaders
         // See top.marchand.xml.gaulois.resolve.GauloisSAXParserFactory
         ThreadLocal<EntityResolver2> th = new ThreadLocal<>();
         th.set(getEntityResolver());
         boolean avoidCache = input.getAvoidCache();
         long start = System.currentTimeMillis();
-        String key = input.getFile().getAbsolutePath().intern();
+        String key = input.getFile().getAbsolutePath();
         LOGGER.debug("["+instanceName+"] starting execute on "+key);
-        XdmNode source = documentCache.get(key);
-        if(source==null || avoidCache) {
-            if(!avoidCache && documentCache.isLoading(instanceName)) {
-                source = documentCache.waitForLoading(key);
-            }
-            if(source==null || avoidCache) {
-                synchronized(key) {
-                    if(!avoidCache) {
-                        source = documentCache.get(key);
-                    }
-                    if(source==null) {
-                        documentCache.setLoading(key);
-                        if(config.isLogFileSize()) {
-                            LOGGER.info("["+instanceName+"] "+input.toString()+" as input: "+input.getFile().length());
-                        }
-                        // issue #39
-                        XMLReader xmlReader = null;
-                        try {
-                            try {
-                                xmlReader = readers.take();
-                                SAXSource saxSource = new SAXSource(xmlReader, new InputSource(new FileInputStream(input.getFile())));
-                                saxSource.setSystemId(input.getFile().toURI().toString());
-                                source = builder.build(saxSource);
-                            } finally {
-                                readers.put(xmlReader);
-                            }
-                        } catch(InterruptedException ex) {
-                            LOGGER.error("Problem with XMLReader pool");
-                            throw new SaxonApiException("Problem with XMLReader pool. This has nothing to do with Saxon", ex);
-                        }
-                        // end issue #39
-                        if(!avoidCache && config.getSources().getFileUsage(input.getFile())>1) {
-                            // on ne le met en cache que si il est utilisé plusieurs fois !
-                            LOGGER.debug("["+instanceName+"] caching "+key);
-                            documentCache.put(key, source);
-                        } else {
-                            documentCache.ignoreLoading(key);
-                            if(avoidCache){
-                                LOGGER.trace("["+instanceName+"] "+key+" exclued from cache");
-                            } else {
-                                LOGGER.trace("["+instanceName+"] "+key+" used only once, no cache");
-                            }
-                        }
-                    }
-                }
+        if(input.getSplitOn()!=null) {
+            executeSplit(pipe, input, listener, outputs.length>0 ? outputs[0] : null);
+            logTermination(input, start);
+            return;
+        }
+        if(pipe.isStreaming()) {
+            executeStreaming(pipe, input, listener, outputs.length>0 ? outputs[0] : null);
+            logTermination(input, start);
+            return;
+        }
+        XdmNode source;
+        if(!avoidCache && config.getSources().getFileUsage(input.getFile())>1) {
+            // on ne le met en cache que si il est utilisé plusieurs fois !
+            source = documentCache.get(key, newDocumentLoader(input));
+        } else if(prefetcher!=null && isPrefetchable(pipe, input)) {
+            try {
+                source = prefetcher.take(input);
+            } finally {
+                // the document is now held by this thread only
+                prefetcher.release(input);
+            }
+        } else {
+            if(avoidCache){
+                LOGGER.trace("["+instanceName+"] "+key+" exclued from cache");
+            } else {
+                LOGGER.trace("["+instanceName+"] "+key+" used only once, no cache");
             }
+            source = loadDocument(input);
+        }
+        if(heapBudget!=null) {
+            heapBudget.learn(input.getFile().length(), DocumentCache.estimateSize(source));
         }
         HashMap<QName,ParameterValue> parameters = ParametersMerger.addInputInParameters(ParametersMerger.merge(input.getParameters(), config.getParams()),input.getFile(), datatypeFactory);
-        DoubleDestination dd = buildTransformer(
-                pipe, 
-                input.getFile(), 
-                input.getFile().toURI().toURL().toExternalForm(), 
-                parameters,
-                listener, source, false, outputs.length>0 ? outputs[0] : null);
-        LOGGER.debug("["+instanceName+"] transformer build");
-        XsltTransformer t = (XsltTransformer)(dd.getStart());
-        t.setInitialContextNode(source);
-        t.transform();
+        if(pipeline!=null && pipe==config.getPipe()) {
+            pipeline.run(
+                    new DocumentContext(
+                        input.getFile(), 
+                        input.getFile().toURI().toURL().toExternalForm(), 
+                        parameters, 
+                        convertParameters(parameters), 
+                        listener, source, outputs.length>0 ? outputs[0] : null), 
+                    source);
+        } else {
+            DoubleDestination dd = buildTransformer(
+                    getPipePlan(pipe), 
+                    input.getFile(), 
+                    input.getFile().toURI().toURL().toExternalForm(), 
+                    parameters,
+                    convertParameters(parameters),
+                    listener, source, false, outputs.length>0 ? outputs[0] : null);
+            LOGGER.debug("["+instanceName+"] transformer build");
+            XsltTransformer t = (XsltTransformer)(dd.getStart());
+            t.setInitialContextNode(source);
+            t.transform();
+        }
+        logTermination(input, start);
+    }
+
+    private void logTermination(ParametrableFile input, long start) {
         long duration = System.currentTimeMillis() - start;
         String distinctName = input.toString();
         try {
@@ -557,41 +1205,259 @@ public class GauloisPipe {
             LOGGER.info("["+instanceName+"] - "+distinctName+" - transform terminated");
         }
     }
+
+    /**
+     * Executes a streaming pipe : no tree is built from input, the parser 
+     * events are sent directly to the first step of the pipe, a java step.
+     */
+    private void executeStreaming(Pipe pipe, ParametrableFile input, MessageListener listener, Map<String,OutputStream> outputs)
+            throws SaxonApiException, InvalidSyntaxException, URISyntaxException, IOException {
+        if(config.isLogFileSize()) {
+            LOGGER.info("["+instanceName+"] "+input.toString()+" as input: "+input.getFile().length());
+        }
+        HashMap<QName,ParameterValue> parameters = ParametersMerger.addInputInParameters(ParametersMerger.merge(input.getParameters(), config.getParams()),input.getFile(), datatypeFactory);
+        DoubleDestination dd = buildTransformer(
+                getPipePlan(pipe), 
+                input.getFile(), 
+                input.getFile().toURI().toURL().toExternalForm(), 
+                parameters,
+                convertParameters(parameters),
+                listener, null, false, outputs);
+        Destination first = (Destination)(dd.getStart());
+        try {
+            Configuration _config = configurationFactory.getConfiguration();
+            Receiver receiver = first.getReceiver(_config);
+            if(receiver.getPipelineConfiguration()==null) {
+                receiver.setPipelineConfiguration(_config.makePipelineConfiguration());
+            }
+            XMLReader xmlReader = takeReader();
+            try(InputStream is = new FileInputStream(input.getFile())) {
+                SAXSource saxSource = new SAXSource(xmlReader, new InputSource(is));
+                saxSource.setSystemId(input.getFile().toURI().toString());
+                Sender.send(saxSource, receiver, new ParseOptions(_config.getParseOptions()));
+            } finally {
+                returnReader(xmlReader);
+            }
+        } catch(XPathException ex) {
+            throw new SaxonApiException(ex);
+        } finally {
+            // closes the serializer and its output stream, even if parse failed
+            first.close();
+        }
+    }
+
+    /**
+     * Executes the pipe on a record-oriented input, that is split in chunks.
+     * The input is streamed, and each chunk of records is run through the pipe's
+     * steps on the fork executor. Results are merged in input order, under 
+     * the root element of the first result, and written to pipe's output.
+     * The number of chunks in flight is bounded by {@link #getMaxChunksInFlight(fr.efl.chaine.xslt.config.Pipe) },
+     * and each result is written as soon as the previous ones have been.
+     */
+    private void executeSplit(Pipe pipe, final ParametrableFile input, final MessageListener listener, Map<String,OutputStream> outputs)
+            throws SaxonApiException, InvalidSyntaxException, URISyntaxException, IOException {
+        if(pipe.isStreaming()) {
+            throw new InvalidSyntaxException(input.getFile().getName()+" is split, but pipe is streaming");
+        }
+        PipePlan plan = getPipePlan(pipe);
+        if(plan.getTee()!=null || plan.getOutput()==null) {
+            throw new InvalidSyntaxException(input.getFile().getName()+" is split, but pipe is not terminated by an output");
+        }
+        final PipePlan chunkPlan = new PipePlan(plan.getSteps(), null, null, plan.toString());
+        final HashMap<QName,ParameterValue> parameters = ParametersMerger.addInputInParameters(ParametersMerger.merge(input.getParameters(), config.getParams()),input.getFile(), datatypeFactory);
+        final Map<QName,XdmValue> globalValues = convertParameters(parameters);
+        final String inputFileUri = input.getFile().toURI().toURL().toExternalForm();
+        final ExecutorService service = getForkService();
+        final int maxInFlight = getMaxChunksInFlight(pipe);
+        // chunks submitted and not written yet, in input order
+        final ArrayDeque<FutureTask<XdmNode>> pending = new ArrayDeque<>();
+        final Destination destination = (Destination)(buildSerializer(plan.getOutput(), input.getFile(), parameters, outputs).getStart());
+        final ChunkMerger merger = new ChunkMerger(destination.getReceiver(processor.getUnderlyingConfiguration()));
+        final int[] written = new int[1];
+        RecordSplitter splitter = new RecordSplitter(builder, input.getSplitOn(), input.getSplitSize(), new RecordSplitter.ChunkHandler() {
+            @Override
+            public void chunk(final XdmNode chunk) throws SAXException {
+                try {
+                    // results are written as soon as possible, waiting for the oldest if too many chunks are in flight
+                    while(!pending.isEmpty() && (pending.size()>=maxInFlight || pending.peekFirst().isDone())) {
+                        writeChunk(pending.pollFirst(), merger, input, ++written[0]);
+                    }
+                } catch(SaxonApiException ex) {
+                    throw new SAXException(ex);
+                }
+                FutureTask<XdmNode> task = new FutureTask<>(new Callable<XdmNode>() {
+                    @Override
+                    public XdmNode call() throws Exception {
+                        DoubleDestination dd = buildTransformer(chunkPlan, input.getFile(), inputFileUri, parameters, globalValues, listener, chunk, true, null);
+                        XdmDestination result = new XdmDestination();
+                        assignStepToDestination(dd.getEnd(), result);
+                        XsltTransformer t = (XsltTransformer)(dd.getStart());
+                        t.setInitialContextNode(chunk);
+                        t.transform();
+                        return result.getXdmNode();
+                    }
+                });
+                pending.addLast(task);
+                service.execute(task);
+            }
+        });
+        try {
+            parse(input, splitter);
+            LOGGER.debug("["+instanceName+"] "+input.getFile().getName()+" split in "+splitter.getChunkCount()+" chunks");
+            if(splitter.getRecordCount()>0) {
+                splitRecordSize.set(Math.max(1L, input.getFile().length()/splitter.getRecordCount()));
+            }
+            while(!pending.isEmpty()) {
+                writeChunk(pending.pollFirst(), merger, input, ++written[0]);
+            }
+            merger.close();
+        } finally {
+            for(FutureTask<XdmNode> task: pending) {
+                task.cancel(false);
+            }
+            destination.close();
+        }
+    }
+
+    /**
+     * Returns the max number of chunks of a split input that are parsed and not written yet.
+     * Heap reserved for a split input depends on it.
+     */
+    private static int getMaxChunksInFlight(Pipe pipe) {
+        return 2*Math.max(1, pipe.getNbThreads());
+    }
+
+    /**
+     * Waits for the result of a chunk, and writes it. Once written, the result is not referenced any more.
+     */
+    private void writeChunk(FutureTask<XdmNode> task, ChunkMerger merger, ParametrableFile input, int index) throws SaxonApiException {
+        // does nothing if task has already been started by executor
+        task.run();
+        try {
+            merger.add(task.get());
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SaxonApiException("interrupted while waiting for chunks of "+input.getFile().getName(), ex);
+        } catch(ExecutionException ex) {
+            throw new SaxonApiException("in chunk "+index+" of "+input.getFile().getName()+": "+ex.getCause().getMessage(), ex.getCause());
+        }
+    }
+
+    /**
+     * Parses <tt>input</tt> with a XMLReader from the pool, sending events to <tt>handler</tt>
+     */
+    private void parse(ParametrableFile input, ContentHandler handler) throws SaxonApiException, IOException {
+        XMLReader xmlReader = takeReader();
+        try(InputStream is = new FileInputStream(input.getFile())) {
+            xmlReader.setContentHandler(handler);
+            InputSource inputSource = new InputSource(is);
+            inputSource.setSystemId(input.getFile().toURI().toString());
+            xmlReader.parse(inputSource);
+        } catch(SAXException ex) {
+            throw new SaxonApiException(ex.getException()!=null ? ex.getException() : ex);
+        } finally {
+            returnReader(xmlReader);
+        }
+    }
+
+    /**
+     * Takes a XMLReader from the pool, waiting for one if none is available.
+     * It must be given back with {@link #returnReader(org.xml.sax.XMLReader) }.
+     */
+    private XMLReader takeReader() throws SaxonApiException {
+        XMLReader xmlReader = readers.poll();
+        if(xmlReader==null) {
+            long waitStart = System.nanoTime();
+            try {
+                xmlReader = readers.take();
+            } catch(InterruptedException ex) {
+                LOGGER.error("Problem with XMLReader pool");
+                throw new SaxonApiException("Problem with XMLReader pool. This has nothing to do with Saxon", ex);
+            } finally {
+                readersWaitTime.addAndGet(System.nanoTime()-waitStart);
+            }
+        }
+        return xmlReader;
+    }
+    /**
+     * Gives back a XMLReader taken with {@link #takeReader() }.
+     */
+    private void returnReader(XMLReader xmlReader) {
+        // handlers set by the last parse, by us or by Saxon, reference its result : they must not be kept by the pool
+        xmlReader.setContentHandler(NO_HANDLER);
+        xmlReader.setDTDHandler(NO_HANDLER);
+        try {
+            xmlReader.setProperty(LEXICAL_HANDLER_PROPERTY, null);
+        } catch(SAXException ex) {
+            // lexical handler is not supported by this reader, so it has not been set
+        }
+        // the pool can hold all readers : this never blocks, and the reader is not lost if thread is interrupted
+        readers.add(xmlReader);
+    }
+
+    
+    private DocumentCache buildDocumentCache() {
+        if(config.getDocumentCacheMaxBytes()>0) {
+            // limited by size, not by number of documents
+            return new DocumentCache(Integer.MAX_VALUE, config.getDocumentCacheMaxBytes());
+        }
+        return new DocumentCache(config.getMaxDocumentCacheSize());
+    }
+    
+    private Callable<XdmNode> newDocumentLoader(final ParametrableFile input) {
+        return new Callable<XdmNode>() {
+            @Override
+            public XdmNode call() throws Exception {
+                LOGGER.debug("["+instanceName+"] caching "+input.getFile().getAbsolutePath());
+                return loadDocument(input);
+            }
+        };
+    }
+    
+    private XdmNode loadDocument(ParametrableFile input) throws SaxonApiException, FileNotFoundException {
+        if(config.isLogFileSize()) {
+            LOGGER.info("["+instanceName+"] "+input.toString()+" as input: "+input.getFile().length());
+        }
+        // issue #39
+        XMLReader xmlReader = takeReader();
+        try {
+            SAXSource saxSource = new SAXSource(xmlReader, new InputSource(new FileInputStream(input.getFile())));
+            saxSource.setSystemId(input.getFile().toURI().toString());
+            return builder.build(saxSource);
+        } finally {
+            returnReader(xmlReader);
+        }
+        // end issue #39
+    }
     
     /**
-     * Execute the pipe for the specified input stream to the specified
-     * serializer.<br>
-     * <b>Warning</b>: this method is public for implementation reasons,
-     * and <b>must not</b> be called outside of GauloisPipe
+     * Builds the transformers and receivers chain of a document from the pipe plan.
      *
-     * @param pipe the pipe to run
-     * @param input the specified input stream
+     * @param plan the plan of the pipe to run
+     * @param inputFile the input file
+     * @param inputFileUri the input file URI
+     * @param parameters the parameters of this document, used for substitutions
+     * @param globalValues the converted values of <tt>parameters</tt>, set on each step
      * @param listener the message listener to use
-     * @param isFake An optional parameter to indicate that we build a pipe not to run it, only to pre-compile XSLs
+     * @param documentTree the input document
+     * @param isFake to indicate that the pipe has no terminal step (a when branch)
+     * @param outputs An optional map that contains OutputStream to bind to cfg:output elements.
      * @throws SaxonApiException when a problem occurs
      * @throws java.net.MalformedURLException When an URL is not correctly formed
      * @throws fr.efl.chaine.xslt.InvalidSyntaxException When config file is invalid
      * @throws java.net.URISyntaxException When URI is invalid
      * @throws java.io.FileNotFoundException And when the file can not be found !
      */
-    private DoubleDestination buildTransformer(Pipe pipe, File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, MessageListener listener, XdmNode documentTree, boolean... isFake) 
-            throws InvalidSyntaxException, URISyntaxException, MalformedURLException, SaxonApiException, FileNotFoundException, IOException {
-        return buildTransformer(pipe, inputFile, inputFileUri, parameters, listener, documentTree, false, new HashMap<String,OutputStream>());
-    }
-    private DoubleDestination buildTransformer(Pipe pipe, File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, MessageListener listener, XdmNode documentTree, boolean isFake, Map<String, OutputStream> ... outputs) 
+    private DoubleDestination buildTransformer(PipePlan plan, File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, Map<QName,XdmValue> globalValues, MessageListener listener, XdmNode documentTree, boolean isFake, Map<String, OutputStream> outputs) 
             throws InvalidSyntaxException, URISyntaxException, MalformedURLException, SaxonApiException, FileNotFoundException, IOException {
-        LOGGER.trace("in buildTransformer(Pipe,...)");
-        XsltTransformer first = null;
-        Iterator<ParametrableStep> it = pipe.getXslts();
+        LOGGER.trace("in buildTransformer(PipePlan,...)");
+        Destination first = null;
         Object previousTransformer = null;
-        Configuration _config = null;
-        _config = configurationFactory.getConfiguration();
-        while(it.hasNext()) {
-            LOGGER.trace("...in buildTransformer.tee.while");
-            ParametrableStep step = it.next();
-            if(step instanceof Xslt) {
-                Xslt xsl = (Xslt)step;
-                XsltTransformer currentTransformer = getXsltTransformer(xsl.getHref(), parameters);
+        Configuration _config = configurationFactory.getConfiguration();
+        for(StepPlan step: plan.getSteps()) {
+            if(step instanceof XsltPlan) {
+                XsltPlan xsl = (XsltPlan)step;
+                XsltTransformer currentTransformer = getXsltTransformer(xsl, parameters);
                 Destination currentDestination = currentTransformer;
                 if(xsl.isTraceToAdd()) {
                     currentTransformer.setTraceListener(traceListener);
@@ -600,45 +1466,12 @@ public class GauloisPipe {
                     LOGGER.trace(xsl.getHref()+" setting messageListener "+listener);
                     currentTransformer.setMessageListener(listener);
                 }
-                for(ParameterValue pv:xsl.getParams()) {
+                for(ParamPlan pp:xsl.getParams()) {
                     // on substitue les paramètres globaux dans ceux de la XSL
-                    if(pv.getValue() instanceof String) {
-                        String value = (String)ParametersMerger.processParametersReplacement(pv.getValue(), parameters);
-                        LOGGER.trace("Setting parameter ("+pv.getKey()+","+value+")");
-                        currentTransformer.setParameter(pv.getKey(), new XdmAtomicValue(value));
-                    } else if(pv.getValue() instanceof XdmAtomicValue) {
-                        String sValue = ((XdmAtomicValue)pv.getValue()).getStringValue();
-                        sValue = (String)ParametersMerger.processParametersReplacement(sValue, parameters);
-                        XdmValue newValue;
-                        try {
-                            newValue = pv.getDatatype().convert(sValue, _config);
-                            currentTransformer.setParameter(pv.getKey(), newValue);
-                        } catch (ValidationException ex) {
-                            throw new SaxonApiException(ex);
-                        }
-                    } else if(pv.getValue() instanceof XdmValue){
-                        currentTransformer.setParameter(pv.getKey(), (XdmValue)pv.getValue());
-                    }
+                    currentTransformer.setParameter(pp.getKey(), pp.getValue(parameters, _config, conversionCache));
                 }
-                for(ParameterValue pv:parameters.values()) {
-                    // substitution has been before, in merge, but there is input-file relative parameters...
-                    if(pv.getValue() instanceof String) {
-                        currentTransformer.setParameter(pv.getKey(), new XdmAtomicValue(
-                                (String)ParametersMerger.processParametersReplacement(pv.getValue(), parameters)
-                        ));
-                    } else if(pv.getValue() instanceof XdmAtomicValue) {
-                        String sValue = ((XdmAtomicValue)pv.getValue()).getStringValue();
-                        sValue = (String)ParametersMerger.processParametersReplacement(sValue, parameters);
-                        XdmValue newValue;
-                        try {
-                            newValue = pv.getDatatype().convert(sValue, _config);
-                            currentTransformer.setParameter(pv.getKey(), newValue);
-                        } catch (ValidationException ex) {
-                            throw new SaxonApiException(ex);
-                        }
-                    } else {
-                        currentTransformer.setParameter(pv.getKey(), (XdmValue)pv.getValue());
-                    }
+                for(Map.Entry<QName,XdmValue> entry:globalValues.entrySet()) {
+                    currentTransformer.setParameter(entry.getKey(), entry.getValue());
                 }
                 if(xsl.isDebug()) {
                     File debugFile;
@@ -659,116 +1492,142 @@ public class GauloisPipe {
                 }
                 previousTransformer = currentDestination;
                 LOGGER.trace(xsl.getHref()+" constructed and added to pipe");
-            } else if(step instanceof ChooseStep) {
-                ChooseStep cStep = (ChooseStep)step;
-                XPathCompiler xpc = getXPathCompiler();
-                if(documentTree==null) {
-                    // here, we are in a pre-compile xsl step, ignore the choose...
-                } else {
-                    boolean whenEntrySelected=false;
-                    for(WhenEntry when:cStep.getConditions()) {
-                        XPathSelector select = xpc.compile(when.getTest()).load();
-                        select.setContextItem(documentTree);
+            } else if(step instanceof ChoosePlan) {
+                ChoosePlan cStep = (ChoosePlan)step;
+                boolean whenEntrySelected=false;
+                for(WhenPlan when:cStep.getConditions()) {
+                    XPathSelector select = when.getTestExecutable().load();
+                    select.setContextItem(documentTree);
+                    boolean selected;
+                    if(cStep.isEffectiveBooleanValue()) {
+                        selected = select.effectiveBooleanValue();
+                    } else {
                         XdmValue result = select.evaluate();
                         if(result.size()!=1) {
                             throw new InvalidSyntaxException(when.getTest()+" does not produce a xs:boolean result");
                         }
-                        if("true".equals(result.itemAt(0).getStringValue())) {
-                            // use this WHEN !
-                            // on ne peut pas faire ça, il n'y a pas de terminal step.
-                            Pipe fakePipe = new Pipe();
-                            for(ParametrableStep innerStep:when.getSteps()) {
-                                fakePipe.addXslt(innerStep);
-                            }
-                            DoubleDestination dd = buildTransformer(fakePipe, inputFile, inputFileUri, parameters, listener, documentTree, true, new HashMap<String,OutputStream>());
-                            if(previousTransformer!=null) {
-                                assignStepToDestination(previousTransformer, (Destination)(dd.getStart()));
-                            }
-                            // issue #31 : we have to found the last restination of this pipe
-                            // TODO: correct problem
-                            previousTransformer = dd.getEnd();
-                            whenEntrySelected = true;
-                            break;
-                        }
-                    }
-                    if(!whenEntrySelected) {
-                        throw new InvalidSyntaxException("no when or otherwise selected for "+inputFileUri);
+                        selected = "true".equals(result.itemAt(0).getStringValue());
                     }
-                }
-            } else if(step instanceof JavaStep) {
-                JavaStep javaStep = (JavaStep)step;
-                LOGGER.debug("creating "+javaStep.getStepClass().getName());
-                try {
-                    LOGGER.debug("[JAVA-STEP] Creating "+javaStep.getStepClass().getName());
-                    StepJava stepJava = javaStep.getStepClass().newInstance();
-                    for(ParameterValue pv:javaStep.getParams()) {
-                        if(pv.getValue() instanceof String) {
-                            stepJava.setParameter(pv.getKey(), new XdmAtomicValue(
-                                    (String)ParametersMerger.processParametersReplacement(pv.getValue(), parameters)
-                            ));
-                        } else if(pv.getValue() instanceof XdmAtomicValue) {
-                            // TODO : this code should be moved to ParametersMerger
-                            String sValue = ((XdmAtomicValue)pv.getValue()).getStringValue();
-                            sValue = (String)ParametersMerger.processParametersReplacement(sValue, parameters);
-                            XdmValue newValue;
-                            try {
-                                newValue = pv.getDatatype().convert(sValue, _config);
-                                stepJava.setParameter(pv.getKey(), newValue);
-                            } catch (ValidationException ex) {
-                                throw new SaxonApiException(ex);
-                            }
-                        } else if(pv.getValue() instanceof XdmValue) {
-                            stepJava.setParameter(pv.getKey(), (XdmValue)pv.getValue());
+                    if(selected) {
+                        // use this WHEN !
+                        DoubleDestination dd = buildTransformer(when.getPipe(), inputFile, inputFileUri, parameters, globalValues, listener, documentTree, true, outputs);
+                        if(previousTransformer!=null) {
+                            assignStepToDestination(previousTransformer, (Destination)(dd.getStart()));
                         }
+                        // issue #31 : we have to found the last restination of this pipe
+                        // TODO: correct problem
+                        previousTransformer = dd.getEnd();
+                        whenEntrySelected = true;
+                        break;
                     }
-                    for(ParameterValue pv:parameters.values()) {
-                        // la substitution a été faite avant, dans le merge
-                        if(pv.getValue() instanceof String) {
-                            stepJava.setParameter(pv.getKey(), new XdmAtomicValue(
-                                    (String)ParametersMerger.processParametersReplacement(pv.getValue(), parameters)
-                            ));
-                        } else if(pv.getValue() instanceof XdmAtomicValue) {
-                            // TODO : this code should be moved to ParametersMerger
-                            String sValue = ((XdmAtomicValue)pv.getValue()).getStringValue();
-                            sValue = (String)ParametersMerger.processParametersReplacement(sValue, parameters);
-                            XdmValue newValue;
-                            try {
-                                newValue = pv.getDatatype().convert(sValue, _config);
-                                stepJava.setParameter(pv.getKey(), newValue);
-                            } catch (ValidationException ex) {
-                                throw new SaxonApiException(ex);
-                            }
-                        } else {
-                            stepJava.setParameter(pv.getKey(), (XdmValue)pv.getValue());
-                        }
-                    }
-                    if(previousTransformer!=null) {
-                        assignStepToDestination(previousTransformer, stepJava);
-                    }
-                    previousTransformer = stepJava;
-                } catch (InstantiationException | IllegalAccessException ex) {
-                    throw new InvalidSyntaxException(ex);
                 }
-            } else if(step instanceof Tee) {
-                throw new InvalidSyntaxException("A tee can not be the root of a pipe");
+                if(!whenEntrySelected) {
+                    throw new InvalidSyntaxException("no when or otherwise selected for "+inputFileUri);
+                }
+            } else if(step instanceof JavaStepPlan) {
+                JavaStepPlan javaStep = (JavaStepPlan)step;
+                LOGGER.debug("[JAVA-STEP] Creating "+javaStep.getStepClass().getName());
+                StepJava stepJava = javaStep.newInstance();
+                for(ParamPlan pp:javaStep.getParams()) {
+                    stepJava.setParameter(pp.getKey(), pp.getValue(parameters, _config, conversionCache));
+                }
+                for(Map.Entry<QName,XdmValue> entry:globalValues.entrySet()) {
+                    stepJava.setParameter(entry.getKey(), entry.getValue());
+                }
+                if(first==null) {
+                    // first step of a streaming pipe
+                    first = stepJava;
+                }
+                if(previousTransformer!=null) {
+                    assignStepToDestination(previousTransformer, stepJava);
+                }
+                previousTransformer = stepJava;
             }
         }
         DoubleDestination nextStep = null;
-        if(pipe.getTee()!=null) {
+        if(plan.getTee()!=null) {
             LOGGER.trace("after having construct xslts, build tee");
-            nextStep = buildTransformer(pipe.getTee(), inputFile, inputFileUri, parameters, listener, documentTree, outputs[0]);
-        } else if(pipe.getOutput()!=null) {
+            nextStep = buildTransformer(plan.getTee(), inputFile, inputFileUri, parameters, globalValues, listener, documentTree, outputs);
+        } else if(plan.getOutput()!=null) {
             LOGGER.trace("after having construct xslts, build output");
-            nextStep = buildSerializer(pipe.getOutput(),inputFile,parameters, outputs[0]);
+            nextStep = buildSerializer(plan.getOutput(),inputFile,parameters, outputs);
         }
         if(nextStep!=null) {
             assignStepToDestination(previousTransformer, (Destination)(nextStep.getStart()));
         } else if(!isFake) {
-            throw new InvalidSyntaxException("Pipe "+pipe.toString()+" has no terminal Step.");
+            throw new InvalidSyntaxException("Pipe "+plan.toString()+" has no terminal Step.");
         }
         return new DoubleDestination(first, (Destination)previousTransformer);
     }
     
+    /**
+     * Builds the pipeline that runs <tt>plan</tt> with one thread per stage.
+     * A stage starts at each XSLT of the pipe, and contains the following 
+     * java and choose steps ; the last stage contains the tee or the output.
+     * Choose tests are always evaluated on source document, as in other modes.
+     * @param plan The plan of the pipe
+     * @return The started pipeline, or <tt>null</tt> if pipe has only one stage
+     */
+    private StagedPipeline<DocumentContext> buildPipeline(PipePlan plan) {
+        List<List<StepPlan>> stagesSteps = new ArrayList<>();
+        for(StepPlan step: plan.getSteps()) {
+            if(step instanceof XsltPlan || stagesSteps.isEmpty()) {
+                stagesSteps.add(new ArrayList<StepPlan>());
+            }
+            stagesSteps.get(stagesSteps.size()-1).add(step);
+        }
+        if(stagesSteps.size()<2) {
+            LOGGER.info("["+instanceName+"] pipe has only one stage, it is not pipelined");
+            return null;
+        }
+        List<StagedPipeline.Stage<DocumentContext>> stages = new ArrayList<>(stagesSteps.size());
+        for(int i=0;i<stagesSteps.size();i++) {
+            final boolean last = i==stagesSteps.size()-1;
+            final PipePlan stagePlan = last ?
+                    new PipePlan(stagesSteps.get(i), plan.getTee(), plan.getOutput(), plan.toString()+" stage "+(i+1)) :
+                    new PipePlan(stagesSteps.get(i), null, null, plan.toString()+" stage "+(i+1));
+            stages.add(new StagedPipeline.Stage<DocumentContext>() {
+                @Override
+                public XdmNode process(DocumentContext ctx, XdmNode input) throws Exception {
+                    DoubleDestination dd = buildTransformer(stagePlan, ctx.inputFile, ctx.inputFileUri, ctx.parameters, ctx.globalValues, ctx.listener, ctx.source, !last, ctx.outputs);
+                    XdmDestination result = null;
+                    if(!last) {
+                        result = new XdmDestination();
+                        assignStepToDestination(dd.getEnd(), result);
+                    }
+                    XsltTransformer t = (XsltTransformer)(dd.getStart());
+                    t.setInitialContextNode(input);
+                    t.transform();
+                    return result==null ? null : result.getXdmNode();
+                }
+            });
+        }
+        LOGGER.info("["+instanceName+"] pipe is pipelined on "+stages.size()+" stages");
+        return new StagedPipeline<>(stages, 1, getThreadFactory());
+    }
+
+    /**
+     * All a pipeline stage requires to process a document
+     */
+    private static class DocumentContext {
+        private final File inputFile;
+        private final String inputFileUri;
+        private final HashMap<QName,ParameterValue> parameters;
+        private final Map<QName,XdmValue> globalValues;
+        private final MessageListener listener;
+        private final XdmNode source;
+        private final Map<String,OutputStream> outputs;
+        DocumentContext(File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, Map<QName,XdmValue> globalValues, MessageListener listener, XdmNode source, Map<String,OutputStream> outputs) {
+            this.inputFile = inputFile;
+            this.inputFileUri = inputFileUri;
+            this.parameters = parameters;
+            this.globalValues = globalValues;
+            this.listener = listener;
+            this.source = source;
+            this.outputs = outputs;
+        }
+    }
+
     private void assignStepToDestination(Object assignee, Destination assigned) throws IllegalArgumentException {
         if(assignee==null) throw new IllegalArgumentException("assignee must not be null");
         if(assigned==null) throw new IllegalArgumentException("assigned must not be null");
@@ -783,71 +1642,301 @@ public class GauloisPipe {
         }
     }
     
-    private XsltTransformer getXsltTransformer(String href, HashMap<QName,ParameterValue> parameters) 
+    private XsltTransformer getXsltTransformer(final String href, HashMap<QName,ParameterValue> parameters) 
             throws MalformedURLException, SaxonApiException, URISyntaxException, FileNotFoundException, IOException {
-        String __href = (String)ParametersMerger.processParametersReplacement(href, parameters);
+        final String __href = (String)ParametersMerger.processParametersReplacement(href, parameters);
         LOGGER.debug("loading "+__href);
-        XsltExecutable xsl = xslCache.get(__href);
-        Source xslSource = null;
-        Exception sourceEx = null;
+        return newXsltTransformer(getCompiledXsl(__href));
+    }
+    
+    private XsltTransformer getXsltTransformer(XsltPlan xsl, HashMap<QName,ParameterValue> parameters) 
+            throws MalformedURLException, SaxonApiException, URISyntaxException, FileNotFoundException, IOException {
+        if(xsl.getCompiledXsl()==null) {
+            return getXsltTransformer(xsl.getHref(), parameters);
+        }
+        return newXsltTransformer(xsl.getCompiledXsl());
+    }
+    
+    private XsltTransformer newXsltTransformer(CompiledXsl xsl) {
+        XsltTransformer ret = xsl.getExecutable().load();
+        if(xsl.getStaticBaseUri()!=null) {
+            ret.setParameter(ParametersMerger.GP_STATIC_BASE_URI, xsl.getStaticBaseUri());
+        }
+        ret.setErrorListener(errorListener);
+        return ret;
+    }
+    
+    private Source resolveXsl(final String href) throws SaxonApiException, FileNotFoundException {
+        xslResolutions.incrementAndGet();
         try {
-            xslSource = getUriResolver().resolve(href, getCurrentDirUri());
-        } catch(TransformerException tEx) {
-            sourceEx = tEx;
+            Source xslSource = getUriResolver().resolve(href, getCurrentDirUri());
+            if(xslSource==null) {
+                throw new FileNotFoundException("Unable to resolve "+href);
+            }
+            return xslSource;
+        } catch(TransformerException ex) {
+            LOGGER.error("while resolving "+href);
+            throw new SaxonApiException(ex);
         }
-        if(xsl==null) {
-            LOGGER.trace(__href+" not in cache");
-            try {
-                if(xslSource==null) {
-                    throw new FileNotFoundException("Unable to resolve "+href);
-                }
-                if(sourceEx!=null) throw sourceEx;
-                xsl = xsltCompiler.compile(xslSource);
-                xslCache.put(__href, xsl);
-            } catch(SaxonApiException ex) {
-                LOGGER.error("while compiling "+__href);
-                LOGGER.error("SaxonAPIException: "+href+": ["+ex.getErrorCode()+"]:"+ex.getMessage());
-                if(ex.getCause()!=null) {
-                    LOGGER.error(ex.getCause().getMessage());
+    }
+    
+    /**
+     * Returns the compiled XSL of <tt>href</tt>. XSL is resolved and compiled
+     * only if it is not in cache.
+     * @param href The substituted href of the XSL
+     * @return The compiled XSL
+     */
+    private CompiledXsl getCompiledXsl(final String href) throws SaxonApiException, IOException {
+        return xslCache.get(href, new Callable<CompiledXsl>() {
+            @Override
+            public CompiledXsl call() throws Exception {
+                LOGGER.trace(href+" not in cache");
+                Source xslSource = resolveXsl(href);
+                try {
+                    XsltExecutable executable = xsltCompiler.compile(xslSource);
+                    XdmValue staticBaseUri = null;
+                    try {
+                        staticBaseUri = datatypeFactory.getDatatype(new QName(DatatypeFactory.NS_XSD, "anyURI")).convert(xslSource.getSystemId(), configurationFactory.getConfiguration());
+                    } catch(ValidationException ex) {
+                        LOGGER.error("while setting gp:static-base-uri parameter", ex);
+                    }
+                    return new CompiledXsl(executable, xslSource.getSystemId(), staticBaseUri);
+                } catch(SaxonApiException ex) {
+                    LOGGER.error("while compiling "+href);
+                    LOGGER.error("SaxonAPIException: "+href+": ["+ex.getErrorCode()+"]:"+ex.getMessage());
+                    if(ex.getCause()!=null) {
+                        LOGGER.error(ex.getCause().getMessage());
+                    }
+                    throw ex;
+                } catch(Exception ex) {
+                    LOGGER.error("while compiling "+href);
+                    throw ex;
+                } finally {
+                    closeSource(xslSource);
                 }
-                throw ex;
-            } catch(TransformerException ex) {
-                LOGGER.error("while compiling "+__href);
-                throw new SaxonApiException(ex);
-            } catch(FileNotFoundException ex) {
-                LOGGER.error("while compiling "+__href);
-                throw ex;
-            } catch(Exception ex) {
-                LOGGER.error("while compiling "+__href);
-            }
-        }
-        XsltTransformer ret = xsl.load();
+            }
+        });
+    }
+    
+    /**
+     * Closes the stream a resolver may have opened, and that has not been
+     * closed by the compiler.
+     * @param source The source to close
+     */
+    private void closeSource(Source source) {
+        InputSource is = null;
         try {
-            
-            ret.setParameter(
-                    ParametersMerger.GP_STATIC_BASE_URI, 
-                    datatypeFactory.getDatatype(new QName(DatatypeFactory.NS_XSD, "anyURI")).convert(xslSource.getSystemId(), configurationFactory.getConfiguration()));
-        } catch(ValidationException ex) {
-            LOGGER.error("while setting gp:static-base-uri parameter", ex);
+            if(source instanceof StreamSource) {
+                StreamSource ss = (StreamSource)source;
+                if(ss.getInputStream()!=null) {
+                    ss.getInputStream().close();
+                }
+                if(ss.getReader()!=null) {
+                    ss.getReader().close();
+                }
+            } else if(source instanceof SAXSource && (is=((SAXSource)source).getInputSource())!=null) {
+                if(is.getByteStream()!=null) {
+                    is.getByteStream().close();
+                }
+                if(is.getCharacterStream()!=null) {
+                    is.getCharacterStream().close();
+                }
+            }
+        } catch(IOException ex) {
+            LOGGER.warn("while closing "+source.getSystemId(), ex);
+        }
+    }
+    
+    /**
+     * Returns the plan of <tt>pipe</tt>, building it on first call.
+     * @param pipe The pipe
+     * @return The precompiled plan of this pipe
+     * @throws InvalidSyntaxException If pipe is invalid
+     * @throws SaxonApiException If a XSL does not compile, or a parameter value is invalid
+     * @throws IOException If a XSL can not be read
+     */
+    private PipePlan getPipePlan(Pipe pipe) throws InvalidSyntaxException, SaxonApiException, IOException {
+        PipePlan plan = pipePlans.get(pipe);
+        if(plan==null) {
+            plan = buildPipePlan(pipe.getXslts(), pipe.getTee(), pipe.getOutput(), pipe.toString());
+            PipePlan previous = pipePlans.putIfAbsent(pipe, plan);
+            if(previous!=null) {
+                plan = previous;
+            }
+        }
+        return plan;
+    }
+    
+    private PipePlan buildPipePlan(Iterator<ParametrableStep> it, Tee tee, Output output, String description) throws InvalidSyntaxException, SaxonApiException, IOException {
+        Configuration _config = configurationFactory.getConfiguration();
+        List<StepPlan> steps = new ArrayList<>();
+        while(it.hasNext()) {
+            ParametrableStep step = it.next();
+            if(step instanceof Xslt) {
+                Xslt xsl = (Xslt)step;
+                CompiledXsl compiledXsl = null;
+                if(!xsl.getHref().contains("$[")) {
+                    compiledXsl = getCompiledXsl(xsl.getHref());
+                }
+                steps.add(new XsltPlan(xsl.getHref(), compiledXsl, buildParamPlans(xsl.getParams()), xsl.isTraceToAdd(), xsl.isDebug(), xsl.getId()));
+            } else if(step instanceof ChooseStep) {
+                ChooseStep cStep = (ChooseStep)step;
+                List<WhenPlan> whens = new ArrayList<>();
+                for(WhenEntry when: cStep.getConditions()) {
+                    XPathExecutable test = getXPathCompiler().compile(when.getTest());
+                    whens.add(new WhenPlan(when.getTest(), test, buildPipePlan(when.getSteps().iterator(), null, null, when.toString())));
+                }
+                steps.add(new ChoosePlan(whens, cStep.isEffectiveBooleanValue()));
+            } else if(step instanceof JavaStep) {
+                JavaStep javaStep = (JavaStep)step;
+                if(javaStep.getStepClass()==null) {
+                    javaStep.verify();
+                }
+                steps.add(new JavaStepPlan(javaStep.getStepClass(), buildParamPlans(javaStep.getParams())));
+            } else if(step instanceof Tee) {
+                throw new InvalidSyntaxException("A tee can not be the root of a pipe");
+            }
+        }
+        TeePlan teePlan = null;
+        if(tee!=null) {
+            if(tee.getPipes()==null) {
+                throw new InvalidSyntaxException("tee.getPipes() est null !");
+            }
+            List<PipePlan> pipes = new ArrayList<>();
+            for(Pipe pipe: tee.getPipes()) {
+                pipes.add(buildPipePlan(pipe.getXslts(), pipe.getTee(), pipe.getOutput(), pipe.toString()));
+            }
+            teePlan = new TeePlan(pipes, tee.isParallel());
+        }
+        OutputPlan outputPlan = null;
+        if(output!=null) {
+            Map<Serializer.Property,String> serializerProperties = new LinkedHashMap<>();
+            Properties outputProps = output.getOutputProperties();
+            for(Object key: outputProps.keySet()) {
+                serializerProperties.put(Output.VALID_OUTPUT_PROPERTIES.get(key.toString()).getSaxonProperty(), outputProps.getProperty(key.toString()));
+            }
+            outputPlan = new OutputPlan(output, serializerProperties);
+        }
+        return new PipePlan(steps, teePlan, outputPlan, description);
+    }
+    
+    private List<ParamPlan> buildParamPlans(Collection<ParameterValue> params) throws SaxonApiException {
+        List<ParamPlan> ret = new ArrayList<>(params.size());
+        for(ParameterValue pv: params) {
+            ParamPlan pp = ParamPlan.of(pv, configurationFactory.getConfiguration(), conversionCache);
+            if(pp!=null) {
+                ret.add(pp);
+            }
         }
-        ret.setErrorListener(errorListener);
         return ret;
     }
     
-    private DoubleDestination buildTransformer(Tee tee, File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, MessageListener listener, XdmNode documentTree, Map<String, OutputStream> outputs) throws InvalidSyntaxException, URISyntaxException, MalformedURLException, SaxonApiException, FileNotFoundException, IOException {
-        LOGGER.trace("in buildTransformer(Tee,...)");
-        List<Destination> dests = new ArrayList<>();
-        if(tee==null) {
-            throw new InvalidSyntaxException("tee est null !");
+    /**
+     * Converts the parameters of a document to the values to set on each step.
+     * This is done once per document, not once per step.
+     * @param parameters The document parameters
+     * @return The values to set on steps
+     * @throws SaxonApiException If a value is not valid for its datatype
+     */
+    private Map<QName,XdmValue> convertParameters(HashMap<QName,ParameterValue> parameters) throws SaxonApiException {
+        Map<QName,XdmValue> ret = new LinkedHashMap<>();
+        for(ParameterValue pv: parameters.values()) {
+            ParamPlan pp = ParamPlan.of(pv, configurationFactory.getConfiguration(), conversionCache);
+            if(pp!=null) {
+                ret.put(pv.getKey(), pp.getValue(parameters, configurationFactory.getConfiguration(), conversionCache));
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Compiles, in parallel, all the XSLs of the pipe, including the ones in
+     * <tt>choose</tt> branches and in <tt>tee</tt>s, so they are all in cache
+     * before any input is processed.
+     * All compilation errors are collected before failing.
+     * XSLs whose href depends on the input file (<tt>$[input-basename]</tt>, ...)
+     * can not be compiled here ; they will be compiled on first use.
+     * @param pipe The pipe to compile
+     * @throws SaxonApiException If at least one XSL does not compile
+     */
+    private void precompileXslts(Pipe pipe) throws SaxonApiException {
+        Set<String> hrefs = new LinkedHashSet<>();
+        collectXsltHrefs(pipe, hrefs);
+        if(hrefs.isEmpty()) return;
+        int nbThreads = Math.min(hrefs.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService service = Executors.newFixedThreadPool(nbThreads, getThreadFactory());
+        Map<String,Future<CompiledXsl>> compilations = new LinkedHashMap<>();
+        int failures = 0;
+        try {
+            for(final String href: hrefs) {
+                compilations.put(href, service.submit(new Callable<CompiledXsl>() {
+                    @Override
+                    public CompiledXsl call() throws Exception {
+                        return getCompiledXsl(href);
+                    }
+                }));
+            }
+            for(Map.Entry<String,Future<CompiledXsl>> entry: compilations.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch(ExecutionException ex) {
+                    failures++;
+                    Throwable cause = ex.getCause();
+                    collectError(cause instanceof Exception ? (Exception)cause : ex, "while compiling "+entry.getKey());
+                }
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SaxonApiException("interrupted while compiling XSLs", ex);
+        } finally {
+            service.shutdownNow();
+        }
+        if(failures>0) {
+            throw new SaxonApiException(failures+" XSL(s) failed to compile. See previous logs.");
         }
-        if(tee.getPipes()==null) {
-            throw new InvalidSyntaxException("tee.getPipes() est null !");
+        LOGGER.debug("["+instanceName+"] "+hrefs.size()+" XSL(s) compiled");
+    }
+    
+    private void collectXsltHrefs(Pipe pipe, Set<String> hrefs) {
+        collectXsltHrefs(pipe.getXslts(), hrefs);
+        if(pipe.getTee()!=null) {
+            for(Pipe p: pipe.getTee().getPipes()) {
+                collectXsltHrefs(p, hrefs);
+            }
+        }
+    }
+    private void collectXsltHrefs(Iterator<ParametrableStep> steps, Set<String> hrefs) {
+        while(steps.hasNext()) {
+            ParametrableStep step = steps.next();
+            if(step instanceof Xslt) {
+                String href = ParametersMerger.processParametersReplacement(((Xslt)step).getHref(), config.getParams());
+                if(!href.contains("$[")) {
+                    hrefs.add(href);
+                }
+            } else if(step instanceof ChooseStep) {
+                for(WhenEntry when: ((ChooseStep)step).getConditions()) {
+                    collectXsltHrefs(when.getSteps().iterator(), hrefs);
+                }
+            }
         }
-        for(Pipe pipe:tee.getPipes()) {
+    }
+    
+    private DoubleDestination buildTransformer(TeePlan tee, File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, Map<QName,XdmValue> globalValues, MessageListener listener, XdmNode documentTree, Map<String, OutputStream> outputs) throws InvalidSyntaxException, URISyntaxException, MalformedURLException, SaxonApiException, FileNotFoundException, IOException {
+        LOGGER.trace("in buildTransformer(TeePlan,...)");
+        List<Destination> dests = new ArrayList<>();
+        for(PipePlan pipe:tee.getPipes()) {
             dests.add(
-                    (Destination)(buildShortPipeTransformer(pipe, inputFile, inputFileUri, parameters, listener, documentTree, outputs).getStart())
+                    (Destination)(buildShortPipeTransformer(pipe, inputFile, inputFileUri, parameters, globalValues, listener, documentTree, outputs).getStart())
             );
         }
+        if(tee.isParallel()) {
+            List<String> descriptions = new ArrayList<>(dests.size());
+            for(int i=1;i<=dests.size();i++) {
+                descriptions.add("pipe["+i+"]");
+            }
+            Destination parallelTee = new ParallelTeeDestination(dests, descriptions, processor, getForkService());
+            return new DoubleDestination(parallelTee, parallelTee);
+        }
         while(dests.size()>1) {
             Destination d1 = dests.remove(0);
             Destination d2 = dests.remove(0);
@@ -856,19 +1945,37 @@ public class GauloisPipe {
         }
         return new DoubleDestination(dests.get(0), dests.get(dests.size()-1));
     }
-    private DoubleDestination buildShortPipeTransformer(Pipe pipe, File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, MessageListener listener, XdmNode documentTree, Map<String, OutputStream> outputs) throws InvalidSyntaxException, URISyntaxException, MalformedURLException, SaxonApiException, FileNotFoundException, IOException {
-        if(!pipe.getXslts().hasNext()) {
+    /**
+     * Returns the executor sub-tasks of a document are submitted to : sub-pipes
+     * of parallel tees, and chunks of split inputs.
+     * It is created on first use, with as many threads as the pipe.
+     */
+    private synchronized ExecutorService getForkService() {
+        if(forkService==null) {
+            forkService = Executors.newFixedThreadPool(Math.max(1, config.getPipe().getNbThreads()), getThreadFactory());
+        }
+        return forkService;
+    }
+    private synchronized void shutdownForkService() {
+        if(forkService!=null) {
+            forkService.shutdown();
+            forkService = null;
+        }
+    }
+    private DoubleDestination buildShortPipeTransformer(PipePlan pipe, File inputFile, String inputFileUri, HashMap<QName,ParameterValue> parameters, Map<QName,XdmValue> globalValues, MessageListener listener, XdmNode documentTree, Map<String, OutputStream> outputs) throws InvalidSyntaxException, URISyntaxException, MalformedURLException, SaxonApiException, FileNotFoundException, IOException {
+        if(pipe.getSteps().isEmpty()) {
             if(pipe.getOutput()!=null) {
                 return buildSerializer(pipe.getOutput(),inputFile, parameters, outputs);
             } else {
-                return buildTransformer(pipe.getTee(), inputFile, inputFileUri, parameters, listener, documentTree, outputs);
+                return buildTransformer(pipe.getTee(), inputFile, inputFileUri, parameters, globalValues, listener, documentTree, outputs);
             }
         } else {
-            return buildTransformer(pipe, inputFile, inputFileUri, parameters, listener, documentTree);
+            return buildTransformer(pipe, inputFile, inputFileUri, parameters, globalValues, listener, documentTree, false, outputs);
         }
     }
     
-    private DoubleDestination buildSerializer(Output output, File inputFile, HashMap<QName,ParameterValue> parameters, Map<String,OutputStream> outputs) throws InvalidSyntaxException, URISyntaxException {
+    private DoubleDestination buildSerializer(OutputPlan outputPlan, File inputFile, HashMap<QName,ParameterValue> parameters, Map<String,OutputStream> outputs) throws InvalidSyntaxException, URISyntaxException {
+        Output output = outputPlan.getOutput();
         if(output.isNullOutput()) {
             Destination s = processor.newSerializer(new NullOutputStream());
             return new DoubleDestination(s, s);
@@ -883,9 +1990,8 @@ public class GauloisPipe {
         } else {
             ret = processor.newSerializer(destinationFile);
         }
-        Properties outputProps = output.getOutputProperties();
-        for(Object key: outputProps.keySet()) {
-            ret.setOutputProperty(Output.VALID_OUTPUT_PROPERTIES.get(key.toString()).getSaxonProperty(), outputProps.getProperty(key.toString()));
+        for(Map.Entry<Serializer.Property,String> entry: outputPlan.getSerializerProperties().entrySet()) {
+            ret.setOutputProperty(entry.getKey(), entry.getValue());
         }
         if(config.isLogFileSize()) {
             Destination dest = new Destination() {
@@ -1256,53 +2362,6 @@ public class GauloisPipe {
         }
     }
     
-    private class DocumentCache extends LinkedHashMap<String, XdmNode> {
-        private final int cacheSize;
-        private List<String> loading;
-        public DocumentCache(final int cacheSize) {
-            super();
-            if(cacheSize<1) throw new IllegalArgumentException("cacheSize must be at least 1");
-            this.cacheSize=cacheSize;
-            loading = new ArrayList<>(10);
-        }
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, XdmNode> eldest) {
-            boolean ret = size()==cacheSize;
-            if(ret)
-                LOGGER.debug("removing entry from documentCache : "+eldest.getKey());
-            return ret;
-        }
-        public void setLoading(String key) {
-            loading.add(key);
-        }
-        public void ignoreLoading(String key) {
-            loading.remove(key);
-        }
-        public boolean isLoading(String key) {
-            return loading.contains(key);
-        }
-
-        @Override
-        public XdmNode put(String key, XdmNode value) {
-            XdmNode ret =  super.put(key, value);
-            loading.remove(key);
-            return ret;
-        }
-        
-        @SuppressWarnings("SleepWhileInLoop")
-        public XdmNode waitForLoading(String key) {
-            long endDate = System.currentTimeMillis() + 2000;
-            while(isLoading(key)) {
-                try { Thread.sleep(100); } catch(Throwable t) {}
-                if(System.currentTimeMillis()> endDate) {
-                    return null;
-                }
-            }
-            return get(key);
-        }
-        
-    }
-    
 //    private class ErrorCollector implements Runnable {
 //        private final List<String> errorsContainer;
 //        public ErrorCollector(List<String> errorsContainer) {
@@ -1443,7 +2502,7 @@ public class GauloisPipe {
         }
         return currentDirUri;
     }
-    private XPathCompiler getXPathCompiler() {
+    private synchronized XPathCompiler getXPathCompiler() {
         if(xpathCompiler==null) {
             xpathCompiler = processor.newXPathCompiler();
             for(String prefix:config.getNamespaces().getMappings().keySet()) {
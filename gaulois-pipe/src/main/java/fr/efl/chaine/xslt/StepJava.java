@@ -17,7 +17,7 @@ import net.sf.saxon.s9api.XdmValue;
  * All user-defined java steps must extends this class.
  * An implementation of StepJava must not be a pipe final Step. 
  * It must have a following step.
- * It must not be a root pipe Step.
+ * It must not be a root pipe Step, unless pipe is streaming.
  * @author cmarchand
  */
 public abstract class StepJava implements Destination {
@@ -20,26 +20,94 @@ public class CfgFile implements Verifiable {
     static final QName QNAME = new QName(Config.NS, "file");
     static final QName QN_FOLDER = new QName(Config.NS, "folder");
     static final QName ATTR_HREF = new QName("href");
+    static final QName ATTR_SPLIT_ON = new QName("splitOn");
+    static final QName ATTR_SPLIT_SIZE = new QName("splitSize");
+    /**
+     * Default number of records per chunk
+     */
+    public static final int DEFAULT_SPLIT_SIZE = 1000;
     private final File source;
     private final HashMap<QName, ParameterValue> params;
+    private String splitOn;
+    private int splitSize = DEFAULT_SPLIT_SIZE;
+    private long length = -1L;
+    private long lastModified;
     
     public CfgFile(File source) {
         super();
         this.source=source;
         params = new HashMap<>();
     }
+    /**
+     * Constructs a CfgFile whose size and modification time are already known,
+     * typically read while scanning a folder.
+     * @param source The source file
+     * @param length The file size
+     * @param lastModified The file modification time
+     */
+    public CfgFile(File source, long length, long lastModified) {
+        this(source);
+        this.length = length;
+        this.lastModified = lastModified;
+    }
     public void addParameter(ParameterValue param) {
         if(param==null) return;
         params.put(param.getKey(), param);
     }
     public File getSource() { return source; }
+    /**
+     * Returns the file size, read only once. Sources are sorted and dispatched
+     * on this value, so it must not change while sources are processed.
+     * @return The file size when it has been read
+     */
+    public long getLength() {
+        if(length<0L) {
+            snapshot();
+        }
+        return length;
+    }
+    /**
+     * Returns the file modification time, read only once, with size.
+     * @return The file modification time when it has been read
+     */
+    public long getLastModified() {
+        if(length<0L) {
+            snapshot();
+        }
+        return lastModified;
+    }
+    private void snapshot() {
+        lastModified = source.lastModified();
+        length = source.length();
+    }
     public HashMap<QName,ParameterValue> getParams() {
         return params;
     }
+    /**
+     * Returns the name of record elements this file is split on.
+     * @return The record element name, or <tt>null</tt> if file is not split
+     */
+    public String getSplitOn() {
+        return splitOn;
+    }
+    public void setSplitOn(String splitOn) {
+        this.splitOn = splitOn;
+    }
+    /**
+     * Returns the number of records per chunk, when file is split
+     * @return The number of records per chunk
+     */
+    public int getSplitSize() {
+        return splitSize;
+    }
+    public void setSplitSize(int splitSize) {
+        this.splitSize = splitSize;
+    }
 
     @Override
     public void verify() throws InvalidSyntaxException {
         if(!getSource().exists() || !getSource().isFile()) throw new InvalidSyntaxException(getSource().getAbsolutePath()+" does no exists or is not a regular file.");
+        if(splitOn!=null && splitSize<1) throw new InvalidSyntaxException("splitSize of "+getSource().getAbsolutePath()+" must be at least 1");
     }
 
     @Override
@@ -20,6 +20,8 @@ import net.sf.saxon.s9api.QName;
 public class ChooseStep implements ParametrableStep {
     private final List<WhenEntry> conditions;
     public static final QName QNAME = new QName(Config.NS, "choose");
+    static final QName ATTR_EBV = new QName("effectiveBooleanValue");
+    private boolean effectiveBooleanValue;
     
     public ChooseStep() {
         super();
@@ -42,6 +44,19 @@ public class ChooseStep implements ParametrableStep {
         conditions.add(when);
     }
 
+    /**
+     * Returns <tt>true</tt> if the effective boolean value of tests should
+     * be used, instead of requiring a single boolean.
+     * @return If effective boolean value is used
+     */
+    public boolean isEffectiveBooleanValue() {
+        return effectiveBooleanValue;
+    }
+
+    public void setEffectiveBooleanValue(boolean effectiveBooleanValue) {
+        this.effectiveBooleanValue = effectiveBooleanValue;
+    }
+
     /**
      * Does nothing, a ChooseStep may not have parameters
      * @param param Ignored
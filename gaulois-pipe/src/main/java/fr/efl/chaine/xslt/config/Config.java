@@ -24,12 +24,14 @@ import org.slf4j.LoggerFactory;
 public class Config implements Verifiable {
     public static final int MAX_DOCUMENT_CACHE_SIZE = 1;
     static final QName ATTR_DOCUMENT_CACHE_SIZE = new QName("documentCacheSize");
+    static final QName ATTR_DOCUMENT_CACHE_MAX_BYTES = new QName("documentCacheMaxBytes");
     public static final String NS = "http://efl.fr/chaine/saxon-pipe/config";
     static final QName PARAMS_CHILD = new QName(NS, "params");
     private Pipe pipe;
     private final HashMap<QName,ParameterValue> params;
     private Sources sources;
     private int maxDocumentCacheSize = MAX_DOCUMENT_CACHE_SIZE;
+    private long documentCacheMaxBytes = 0L;
     private static final Logger LOGGER = LoggerFactory.getLogger(Config.class);
     private boolean logFileSize;
     private boolean skipSchemaValidation;
@@ -55,6 +57,14 @@ public class Config implements Verifiable {
                 LOGGER.warn(val+" n'est pas une valeur acceptable pour la taille maximale du cache de documents. "+MAX_DOCUMENT_CACHE_SIZE+" sera utilisé");
             }
         }
+        val = node.getAttributeValue(ATTR_DOCUMENT_CACHE_MAX_BYTES);
+        if(val!=null) {
+            try {
+                documentCacheMaxBytes = Long.parseLong(val);
+            } catch(Exception ex) {
+                LOGGER.warn(val+" n'est pas une valeur acceptable pour la taille maximale en octets du cache de documents. Elle sera ignorée.");
+            }
+        }
     }
     /**
      * Pour compatibilité avec l'ancienne version
@@ -101,6 +111,10 @@ public class Config implements Verifiable {
         pipe.verify();
         if(sources==null) throw new InvalidSyntaxException("No input file defined");
         sources.verify();
+        if(pipe.isStreaming() && sources.hasSplitSources()) {
+            // chunks are XdmNodes, a streaming pipe starts with a java step that receives SAX events
+            throw new InvalidSyntaxException("A streaming pipe can not process sources split with splitOn.");
+        }
         if(namespaces!=null) {
             namespaces.verify();
         }
@@ -127,6 +141,19 @@ public class Config implements Verifiable {
         this.maxDocumentCacheSize = maxDocumentCacheSize;
     }
 
+    /**
+     * Returns the max estimated size of document cache, in bytes.
+     * When greater than 0, the document cache is limited by size, not by number of documents.
+     * @return The max size of document cache, in bytes, or 0
+     */
+    public long getDocumentCacheMaxBytes() {
+        return documentCacheMaxBytes;
+    }
+
+    public void setDocumentCacheMaxBytes(long documentCacheMaxBytes) {
+        this.documentCacheMaxBytes = documentCacheMaxBytes;
+    }
+
     public boolean isLogFileSize() {
         return logFileSize;
     }
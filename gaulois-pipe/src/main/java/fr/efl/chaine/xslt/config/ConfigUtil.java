@@ -9,8 +9,10 @@ package fr.efl.chaine.xslt.config;
 import java.io.File;
 
 import fr.efl.chaine.xslt.InvalidSyntaxException;
+import fr.efl.chaine.xslt.utils.DirectoryScanner;
 import fr.efl.chaine.xslt.utils.ParameterValue;
 import fr.efl.chaine.xslt.utils.ParametersMerger;
+import fr.efl.chaine.xslt.utils.ProcessingHistory;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -19,9 +21,11 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -246,7 +250,36 @@ public class ConfigUtil {
             int max = Integer.parseInt(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_MAX)),parameters));
             pipe.setMultithreadMaxSourceSize(max);
         } catch(Throwable t) {}
+        try {
+            int prefetch = Integer.parseInt(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_PREFETCH)),parameters));
+            pipe.setPrefetch(prefetch);
+        } catch(Throwable t) {}
+        try {
+            long prefetchMaxSize = Long.parseLong(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_PREFETCH_MAX_SIZE)),parameters));
+            pipe.setPrefetchMaxSize(prefetchMaxSize);
+        } catch(Throwable t) {}
+        try {
+            int hugeFilesThreads = Integer.parseInt(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_HUGE_FILES_THREADS)),parameters));
+            pipe.setHugeFilesThreads(hugeFilesThreads);
+        } catch(Throwable t) {}
+        try {
+            long heapBudget = Long.parseLong(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_HEAP_BUDGET)),parameters));
+            pipe.setHeapBudget(heapBudget);
+        } catch(Throwable t) {}
+        try {
+            double expansionFactor = Double.parseDouble(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_EXPANSION_FACTOR)),parameters));
+            pipe.setExpansionFactor(expansionFactor);
+        } catch(Throwable t) {}
+        try {
+            long resultCacheMaxSize = Long.parseLong(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_RESULT_CACHE_MAX_SIZE)),parameters));
+            pipe.setResultCacheMaxSize(resultCacheMaxSize);
+        } catch(Throwable t) {}
         pipe.setTraceOutput(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_TRACE)),parameters));
+        pipe.setResultCache(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_RESULT_CACHE)),parameters));
+        pipe.setResultCacheIgnoreLocation(getXsBooleanValue(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_RESULT_CACHE_IGNORE_LOCATION)),parameters)));
+        pipe.setPipelined(getXsBooleanValue(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_PIPELINED)),parameters)));
+        pipe.setStreaming(getXsBooleanValue(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_STREAMING)),parameters)));
+        pipe.setIncremental(getXsBooleanValue(resolveEscapes(pipeNode.getAttributeValue(new QName(Pipe.ATTR_INCREMENTAL)),parameters)));
         XdmSequenceIterator it = pipeNode.axisIterator(Axis.CHILD);
         while(it.hasNext()) {
             XdmItem item = it.next();
@@ -278,6 +311,9 @@ public class ConfigUtil {
     private Tee buildTee(XdmNode teeNode, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException {
         LOGGER.trace("buildTee on "+teeNode.getNodeName());
         Tee tee = new Tee();
+        if(getXsBooleanValue(teeNode.getAttributeValue(Tee.ATTR_PARALLEL))) {
+            tee.setParallel(true);
+        }
         XdmSequenceIterator seq = teeNode.axisIterator(Axis.CHILD,Pipe.QNAME);
         while(seq.hasNext()) {
             XdmNode node = (XdmNode)seq.next();
@@ -291,6 +327,15 @@ public class ConfigUtil {
         String sort = sourcesNode.getAttributeValue(Sources.ATTR_SORT);
         LOGGER.trace("buildSources from {} with orderBy={} and sort={}", new Object[]{sourcesNode.getNodeName(), orderBy, sort});
         Sources sources = new Sources(orderBy, sort);
+        if("history".equals(orderBy)) {
+            String historyFile = resolveEscapes(sourcesNode.getAttributeValue(Sources.ATTR_HISTORY_FILE), parameters);
+            if(historyFile==null) historyFile = Sources.DEFAULT_HISTORY_FILE;
+            File file = new File(historyFile);
+            if(!file.isAbsolute()) {
+                file = new File(currentDir, historyFile);
+            }
+            sources.setHistory(new ProcessingHistory(file));
+        }
         XdmSequenceIterator it = sourcesNode.axisIterator(Axis.CHILD);
         while(it.hasNext()) {
             XdmNode node = (XdmNode)it.next();
@@ -305,9 +350,16 @@ public class ConfigUtil {
                     throw new InvalidSyntaxException(ex);
                 }
             } else if(CfgFile.QN_FOLDER.equals(node.getNodeName())) {
-                Collection<CfgFile> files = buildFolderContent(node, parameters);
-                LOGGER.trace("buildSources from folder contains {} files", files.size());
-                sources.addFiles(files);
+                FolderSource folder = buildFolderSource(node, parameters);
+                if(folder==null) continue;
+                if(sources.isOrderedByDefinition()) {
+                    // scanned when pipe is launched, files are processed as soon as they are found
+                    sources.addFolder(folder);
+                } else {
+                    Collection<CfgFile> files = buildFolderContent(folder);
+                    LOGGER.trace("buildSources from folder contains {} files", files.size());
+                    sources.addFiles(files);
+                }
             } else if(Listener.QName.equals(node.getNodeName())) {
                 sources.setListener(buildListener(node, parameters));
             }
@@ -356,6 +408,9 @@ public class ConfigUtil {
     private ChooseStep buildChooseStep(XdmNode chooseNode, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException {
         LOGGER.trace("buildChooseStep on {}", chooseNode.getNodeName());
         ChooseStep chooseStep = new ChooseStep();
+        if(getXsBooleanValue(chooseNode.getAttributeValue(ChooseStep.ATTR_EBV))) {
+            chooseStep.setEffectiveBooleanValue(true);
+        }
         XdmSequenceIterator it = chooseNode.axisIterator(Axis.CHILD, WhenEntry.QNAME);
         while(it.hasNext()) {
             XdmNode whenNode = (XdmNode)it.next();
@@ -464,6 +519,7 @@ public class ConfigUtil {
         }
         LOGGER.trace("buildFile on {}", f.getName());
         CfgFile ret = new CfgFile(f);
+        setSplit(ret, node, parameters);
         XdmSequenceIterator it = node.axisIterator(Axis.CHILD, QN_PARAM);
         while(it.hasNext()) {
             ret.addParameter(buildParameter((XdmNode)it.next(),parameters));
@@ -474,6 +530,28 @@ public class ConfigUtil {
         ret.addParameter(relativeDir);
         return ret;
     }
+    /**
+     * Sets the split definition of a <tt>file</tt> or <tt>folder</tt> to <tt>file</tt>
+     */
+    private void setSplit(CfgFile file, XdmNode node, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException {
+        String splitOn = getSplitOn(node, parameters);
+        if(splitOn==null) return;
+        file.setSplitOn(splitOn);
+        file.setSplitSize(getSplitSize(node, parameters));
+    }
+    private String getSplitOn(XdmNode node, HashMap<QName,ParameterValue> parameters) {
+        String splitOn = resolveEscapes(node.getAttributeValue(CfgFile.ATTR_SPLIT_ON), parameters);
+        return splitOn==null || splitOn.isEmpty() ? null : splitOn;
+    }
+    private int getSplitSize(XdmNode node, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException {
+        String splitSize = resolveEscapes(node.getAttributeValue(CfgFile.ATTR_SPLIT_SIZE), parameters);
+        if(splitSize==null) return CfgFile.DEFAULT_SPLIT_SIZE;
+        try {
+            return Integer.parseInt(splitSize);
+        } catch(NumberFormatException ex) {
+            throw new InvalidSyntaxException(splitSize+" is not a valid splitSize");
+        }
+    }
     Object resolveEscapes(Object input, HashMap<QName,ParameterValue> params) {
         LOGGER.debug("resolveEscapes in "+input+" with "+params);
         if(input==null) return input;
@@ -493,8 +571,8 @@ public class ConfigUtil {
         }
         return ret;
     }
-    private Collection<CfgFile> buildFolderContent(XdmNode node, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException {
-        LOGGER.trace("buildFolderContent on "+node.getNodeName());
+    private FolderSource buildFolderSource(XdmNode node, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException {
+        LOGGER.trace("buildFolderSource on "+node.getNodeName());
         String pattern = (String)resolveEscapes(node.getAttributeValue(QN_PATTERN), parameters);
         final boolean recurse = getBooleanValue(node.getAttributeValue(QN_RECURSE));
         HashMap<QName, ParameterValue> params = new HashMap<>();
@@ -527,25 +605,27 @@ public class ConfigUtil {
         
         if(!dir.isDirectory()) {
             LOGGER.warn(dir.getAbsolutePath()+" is not a valid directory");
-            return Collections.EMPTY_LIST;
+            return null;
         }
         LOGGER.trace("dir="+dir+", filter="+filter+", recurse="+recurse);
-        List<CfgFile> files = getFilesFromDirectory(dir,filter,recurse);
-        Path dirPath= dir.toPath();
-        for(CfgFile sourceFile:files) {
-            for(ParameterValue p:params.values()) {
-                sourceFile.addParameter(p);
-            }
-            ParameterValue relativeFile = new ParameterValue(ParametersMerger.INPUT_RELATIVE_FILE, makeAsUri(dirPath.relativize(sourceFile.getSource().toPath())), factory.XS_STRING);
-            sourceFile.addParameter(relativeFile);
-            ParameterValue relativeDir = new ParameterValue(ParametersMerger.INPUT_RELATIVE_DIR, makeAsUri(dirPath.relativize(sourceFile.getSource().getParentFile().toPath())), factory.XS_STRING);
-            sourceFile.addParameter(relativeDir);
-
+        FolderSource folder = new FolderSource(dir, filter, recurse, params, factory.XS_STRING);
+        String splitOn = getSplitOn(node, parameters);
+        if(splitOn!=null) {
+            folder.setSplitOn(splitOn);
+            folder.setSplitSize(getSplitSize(node, parameters));
         }
-        return files;
+        return folder;
     }
-    private String makeAsUri(final Path p) {
-        return p.toString().replaceAll("\\\\", "/");
+    /**
+     * Scans a folder, and returns all files found
+     */
+    private Collection<CfgFile> buildFolderContent(FolderSource folder) {
+        List<CfgFile> files = getFilesFromDirectory(folder.getDirectory(), folder.getFilter(), folder.isRecurse());
+        List<CfgFile> ret = new ArrayList<>(files.size());
+        for(CfgFile sourceFile:files) {
+            ret.add(folder.newCfgFile(sourceFile.getSource(), sourceFile.getLength(), sourceFile.getLastModified()));
+        }
+        return ret;
     }
     private Output buildOutput(XdmNode node, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException {
         LOGGER.trace("buildOutput from {}", node.getNodeName());
@@ -594,20 +674,41 @@ public class ConfigUtil {
      * @return Found files
      */
     List<CfgFile> getFilesFromDirectory(File directory, FilenameFilter filter, boolean recurse) {
-        File [] files = directory.listFiles();
-        List<CfgFile> ret = new ArrayList<>();
-        for(File f:files) {
-            if(f.isDirectory() && recurse) {
-                ret.addAll(getFilesFromDirectory(f, filter, recurse));
-            } else if(filter.accept(f.getParentFile(), f.getName())) {
-                ret.add(new CfgFile(f));
+        final List<CfgFile> ret = Collections.synchronizedList(new ArrayList<CfgFile>());
+        try {
+            new DirectoryScanner().scan(directory.toPath(), filter, recurse, new DirectoryScanner.Handler() {
+                @Override
+                public void file(Path file, BasicFileAttributes attrs) {
+                    ret.add(new CfgFile(file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+            });
+        } catch(IOException ex) {
+            LOGGER.warn("while scanning "+directory.getAbsolutePath(), ex);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("interrupted while scanning "+directory.getAbsolutePath());
+        }
+        // directories are scanned in parallel, sort to keep a stable order
+        Collections.sort(ret, new Comparator<CfgFile>() {
+            @Override
+            public int compare(CfgFile f1, CfgFile f2) {
+                return f1.getSource().compareTo(f2.getSource());
             }
-        }
+        });
         return ret;
     }
     private boolean getBooleanValue(String v) {
         return "true".equals(v) || "1".equals(v) || "yes".equals(v);
     }
+    /**
+     * Parses an attribute declared as <tt>xs:boolean</tt> : <tt>true</tt> or
+     * <tt>1</tt>, with surrounding whitespace.
+     */
+    static boolean getXsBooleanValue(String v) {
+        if(v==null) return false;
+        String trimmed = v.trim();
+        return "true".equals(trimmed) || "1".equals(trimmed);
+    }
     
     /**
      * Adds a parameter to the specified config.
@@ -0,0 +1,125 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.config;
+
+import fr.efl.chaine.xslt.utils.DirectoryScanner;
+import fr.efl.chaine.xslt.utils.ParameterValue;
+import fr.efl.chaine.xslt.utils.ParametersMerger;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import net.sf.saxon.s9api.QName;
+import top.marchand.xml.gaulois.config.typing.Datatype;
+
+/**
+ * A <tt>&lt;folder&gt;</tt> of sources, that is scanned only when pipe is launched.
+ * Files found are processed while the scan continues.
+ * @author cmarchand
+ */
+public class FolderSource {
+    private final File directory;
+    private final FilenameFilter filter;
+    private final boolean recurse;
+    private final HashMap<QName, ParameterValue> params;
+    private final Datatype stringType;
+    private String splitOn;
+    private int splitSize = CfgFile.DEFAULT_SPLIT_SIZE;
+    private int position;
+
+    /**
+     * Constructs a new FolderSource
+     * @param directory The directory to scan
+     * @param filter The filter files must match
+     * @param recurse If sub-directories must be scanned
+     * @param params The parameters of each file found
+     * @param stringType The xs:string datatype, used for relative path parameters
+     */
+    public FolderSource(File directory, FilenameFilter filter, boolean recurse, HashMap<QName, ParameterValue> params, Datatype stringType) {
+        super();
+        this.directory = directory;
+        this.filter = filter;
+        this.recurse = recurse;
+        this.params = params;
+        this.stringType = stringType;
+    }
+
+    /**
+     * Scans the directory, and gives each file found to <tt>handler</tt>
+     * @param scanner The scanner to use
+     * @param handler The handler that receives files found
+     * @throws IOException If a directory can not be read
+     * @throws InterruptedException If interrupted while scanning
+     */
+    public void scan(DirectoryScanner scanner, DirectoryScanner.Handler handler) throws IOException, InterruptedException {
+        scanner.scan(directory.toPath(), filter, recurse, handler);
+    }
+
+    /**
+     * Builds the source of a file found in this folder, with folder's
+     * parameters, split settings, and relative path parameters.
+     * @param file A file found in this folder
+     * @param length The file size, read while scanning
+     * @param lastModified The file modification time, read while scanning
+     * @return The source
+     */
+    public CfgFile newCfgFile(File file, long length, long lastModified) {
+        CfgFile ret = new CfgFile(file, length, lastModified);
+        ret.setSplitOn(splitOn);
+        ret.setSplitSize(splitSize);
+        for(ParameterValue p:params.values()) {
+            ret.addParameter(p);
+        }
+        Path dirPath = directory.toPath();
+        ret.addParameter(new ParameterValue(ParametersMerger.INPUT_RELATIVE_FILE, makeAsUri(dirPath.relativize(file.toPath())), stringType));
+        ret.addParameter(new ParameterValue(ParametersMerger.INPUT_RELATIVE_DIR, makeAsUri(dirPath.relativize(file.getParentFile().toPath())), stringType));
+        return ret;
+    }
+    private static String makeAsUri(final Path p) {
+        return p.toString().replaceAll("\\\\", "/");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+    public FilenameFilter getFilter() {
+        return filter;
+    }
+    public boolean isRecurse() {
+        return recurse;
+    }
+    public String getSplitOn() {
+        return splitOn;
+    }
+    public void setSplitOn(String splitOn) {
+        this.splitOn = splitOn;
+    }
+    public int getSplitSize() {
+        return splitSize;
+    }
+    public void setSplitSize(int splitSize) {
+        this.splitSize = splitSize;
+    }
+    /**
+     * Returns the number of sources defined before this folder, so files found
+     * are processed after them, and before next ones, when sources are ordered by definition.
+     * @return The number of sources defined before this folder
+     */
+    public int getPosition() {
+        return position;
+    }
+    void setPosition(int position) {
+        this.position = position;
+    }
+
+    @Override
+    public String toString() {
+        return directory.getAbsolutePath()+(recurse ? "/**" : "/*");
+    }
+
+}
@@ -9,19 +9,14 @@ package fr.efl.chaine.xslt.config;
 import java.io.File;
 import fr.efl.chaine.xslt.InvalidSyntaxException;
 import fr.efl.chaine.xslt.utils.ParameterValue;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
-import java.util.regex.Matcher;
 
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.Serializer;
-import net.sf.saxon.s9api.XdmAtomicValue;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * An output definition
@@ -32,7 +27,6 @@ public class Output implements Verifiable {
     static final QName QN_CONSOLE = new QName(Config.NS, "console");
     static final QName ATTR_CONSOLE_WHICH = new QName("which");
     public static final HashMap<String,OutputPropertyEntry> VALID_OUTPUT_PROPERTIES = new HashMap<>();
-    private static final Logger LOGGER = LoggerFactory.getLogger(Output.class);
     private String relativeTo, relativePath;
     private String absolute;
     private String prefix, suffix, name;
@@ -40,6 +34,10 @@ public class Output implements Verifiable {
     private String id;
     private final OutputProperties outputProperties;
     private boolean nullOutput = false;
+    /**
+     * The compiled destination, <tt>null</tt> until first used or when a setter has changed it
+     */
+    private volatile OutputPathTemplate pathTemplate;
     
     static {
         VALID_OUTPUT_PROPERTIES.put("byte-order-mark", new OutputPropertyEntry(Serializer.Property.BYTE_ORDER_MARK, "yes", "no"));
@@ -94,24 +92,30 @@ public class Output implements Verifiable {
     public void setRelativeTo(String relativeTo) {
         this.relativeTo = relativeTo;
         absolute = null;
+        pathTemplate = null;
     }
     public void setRelativePath(String relativePath) {
         this.relativePath = relativePath;
         absolute = null;
+        pathTemplate = null;
     }
     public void setAbsolute(String absolute) {
         this.absolute = absolute;
         relativePath = null;
         relativeTo = null;
+        pathTemplate = null;
     }
     public void setPrefix(String prefix) {
         this.prefix = prefix;
+        pathTemplate = null;
     }
     public void setSuffix(String suffix) {
         this.suffix = suffix;
+        pathTemplate = null;
     }
     public void setName(String name) {
         this.name = name;
+        pathTemplate = null;
     }
     private boolean isAbsolute() {
         return absolute!=null;
@@ -178,55 +182,13 @@ public class Output implements Verifiable {
      * @throws java.net.URISyntaxException If the constructed URI is no valid
      */
     public File getDestinationFile(File sourceFile, HashMap<QName,ParameterValue> parameters) throws InvalidSyntaxException, URISyntaxException {
-        File ret;
-        if(isAbsolute()) {
-            String __abs = absolute;
-            int pos = __abs.indexOf("${");
-            while(pos>=0) {
-                int closingPos = __abs.indexOf("}", pos);
-                String propertyName = __abs.substring(pos+2, closingPos);
-                String propertyValue = System.getProperty(propertyName);
-                if(propertyValue!=null) {
-                    LOGGER.debug("Replace system property {} with value {} in {} produces {}", new String[]{propertyName, propertyValue, __abs, __abs.replaceAll("\\$\\{"+propertyName+"\\}", Matcher.quoteReplacement(propertyValue))});
-                    __abs = __abs.replaceAll("\\$\\{"+propertyName+"\\}", Matcher.quoteReplacement(propertyValue));
-                } else {
-                    LOGGER.warn("System property "+propertyName+" is not defined");
-                }
-                pos = __abs.indexOf("${", pos+1);
-            }
-            for(ParameterValue pv:parameters.values()) {
-                LOGGER.debug("replacing $["+pv.getKey()+"]");
-                if(pv.getValue() instanceof String) {
-                    __abs = __abs.replaceAll("\\$\\["+pv.getKey()+"\\]", pv.getValue().toString());
-                }
-            }
-            File directory = __abs.startsWith("file:") ? new File(new URI(__abs)) : new File(__abs);
-            ret = new File(directory, getFileName(sourceFile, parameters));
-        } else {
-            File directory = null;
-            if("source-file".equals(relativeTo)) directory = sourceFile.getParentFile();
-            else if(relativeTo.startsWith("${")) {
-                directory = new File(System.getProperty(relativeTo.substring(2).substring(0,relativeTo.length()-3)));
-            } else {
-                throw new InvalidSyntaxException("folder/@to must be either source-file or ${xxx} where xxx is a system-property name. "+relativeTo+" is not a valid value");
-            }
-            directory = new File(directory, relativePath);
-            ret = new File(directory, getFileName(sourceFile, parameters));
-        }
-        return ret;
+        return getPathTemplate().getDestinationFile(sourceFile, parameters);
     }
-    private String getFileName(File sourceFile, HashMap<QName,ParameterValue> parameters) {
-        String filename = (prefix!=null?prefix:"") + name + (suffix!=null?suffix:"");
-        String sourceName = sourceFile.getName();
-        int ix = sourceName.lastIndexOf(".");
-        // FIXME: this shouldn't be supported, it has been replaced by input-* pseudo-variables
-        String extension = sourceName.substring(ix);
-        String basename = sourceName.substring(0, ix);
-        String ret = filename.replaceAll("\\$\\{name\\}", sourceName).replaceAll("\\$\\{basename\\}", basename).replaceAll("\\$\\{extension\\}", extension);
-        for(ParameterValue pv:parameters.values()) {
-            if(pv.getValue() instanceof String || pv.getValue() instanceof XdmAtomicValue) {
-                ret = ret.replaceAll("\\$\\["+pv.getKey()+"\\]", pv.getValue().toString());
-            }
+    private OutputPathTemplate getPathTemplate() {
+        OutputPathTemplate ret = pathTemplate;
+        if(ret==null) {
+            ret = new OutputPathTemplate(absolute, relativeTo, relativePath, (prefix!=null?prefix:"") + name + (suffix!=null?suffix:""));
+            pathTemplate = ret;
         }
         return ret;
     }
@@ -237,6 +199,8 @@ public class Output implements Verifiable {
         if(isConsoleOutput()) return;
         if(!isAbsolute() && (relativePath==null || relativeTo==null)) throw new InvalidSyntaxException("output is neither absolute nor relative");
         if(name==null) throw new InvalidSyntaxException("no strategy to calculate output filename is defined");
+        // compiled once, at configuration load
+        getPathTemplate();
     }
 
     @Override
@@ -0,0 +1,189 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.config;
+
+import fr.efl.chaine.xslt.InvalidSyntaxException;
+import fr.efl.chaine.xslt.utils.ParameterTemplate;
+import fr.efl.chaine.xslt.utils.ParameterValue;
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sf.saxon.s9api.QName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The destination of an {@link Output}, parsed once. The absolute directory is
+ * split in literal parts and <tt>${system-property}</tt> references ; the file
+ * name is compiled to a {@link ParameterTemplate}. Resolved directories are
+ * cached, so a directory URI is parsed only once.
+ * Templates are immutable, except their directory cache, and may be shared between threads.
+ * @author cmarchand
+ */
+final class OutputPathTemplate {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutputPathTemplate.class);
+    private static final int MAX_DIRECTORIES = 4096;
+    private static final String SOURCE_NAME = "${name}";
+    private static final String SOURCE_BASENAME = "${basename}";
+    private static final String SOURCE_EXTENSION = "${extension}";
+
+    /**
+     * Literal parts of absolute directory, one more than properties, or <tt>null</tt> if relative
+     */
+    private final String[] absoluteLiterals;
+    /**
+     * System properties referenced in absolute directory
+     */
+    private final String[] absoluteProperties;
+    /**
+     * Absolute directory, when it does not reference any system property
+     */
+    private final ParameterTemplate absoluteTemplate;
+    private final String relativeTo;
+    private final String relativePath;
+    /**
+     * The system property of <tt>${xxx}</tt> relativeTo, or <tt>null</tt>
+     */
+    private final String relativeToProperty;
+    private final ParameterTemplate fileName;
+    private final boolean usesSourceName;
+    private final ConcurrentHashMap<String,File> directories;
+    private final ConcurrentHashMap<String,Boolean> undefinedProperties;
+
+    OutputPathTemplate(String absolute, String relativeTo, String relativePath, String fileName) {
+        super();
+        directories = new ConcurrentHashMap<>();
+        undefinedProperties = new ConcurrentHashMap<>();
+        this.relativeTo = relativeTo;
+        this.relativePath = relativePath;
+        if(absolute!=null) {
+            List<String> literals = new ArrayList<>();
+            List<String> properties = new ArrayList<>();
+            int from = 0;
+            int pos = absolute.indexOf("${");
+            while(pos>=0) {
+                int closingPos = absolute.indexOf('}', pos);
+                if(closingPos<0) break;
+                literals.add(absolute.substring(from, pos));
+                properties.add(absolute.substring(pos+2, closingPos));
+                from = closingPos+1;
+                pos = absolute.indexOf("${", from);
+            }
+            literals.add(absolute.substring(from));
+            absoluteLiterals = literals.toArray(new String[literals.size()]);
+            absoluteProperties = properties.toArray(new String[properties.size()]);
+            absoluteTemplate = absoluteProperties.length==0 ? ParameterTemplate.compile(absolute) : null;
+            relativeToProperty = null;
+        } else {
+            absoluteLiterals = null;
+            absoluteProperties = null;
+            absoluteTemplate = null;
+            relativeToProperty = relativeTo!=null && relativeTo.startsWith("${") ? relativeTo.substring(2, relativeTo.length()-1) : null;
+        }
+        this.fileName = ParameterTemplate.compile(fileName);
+        usesSourceName = fileName.contains(SOURCE_NAME) || fileName.contains(SOURCE_BASENAME) || fileName.contains(SOURCE_EXTENSION);
+    }
+
+    File getDestinationFile(File sourceFile, Map<QName,ParameterValue> parameters) throws InvalidSyntaxException, URISyntaxException {
+        return new File(getDirectory(sourceFile, parameters), getFileName(sourceFile, parameters));
+    }
+
+    private File getDirectory(File sourceFile, Map<QName,ParameterValue> parameters) throws InvalidSyntaxException, URISyntaxException {
+        if(absoluteLiterals!=null) {
+            String path = absoluteTemplate!=null ?
+                    absoluteTemplate.render(parameters, false) :
+                    ParameterTemplate.compile(replaceProperties()).render(parameters, false);
+            File ret = directories.get(path);
+            if(ret==null) {
+                ret = path.startsWith("file:") ? new File(new URI(path)) : new File(path);
+                cacheDirectory(path, ret);
+            }
+            return ret;
+        }
+        String base;
+        if("source-file".equals(relativeTo)) {
+            base = sourceFile.getParent();
+        } else if(relativeToProperty!=null) {
+            base = System.getProperty(relativeToProperty);
+            if(base==null) {
+                throw new InvalidSyntaxException("System property "+relativeToProperty+" is not defined");
+            }
+        } else {
+            throw new InvalidSyntaxException("folder/@to must be either source-file or ${xxx} where xxx is a system-property name. "+relativeTo+" is not a valid value");
+        }
+        if(base==null) {
+            return new File((File)null, relativePath);
+        }
+        File ret = directories.get(base);
+        if(ret==null) {
+            ret = new File(new File(base), relativePath);
+            cacheDirectory(base, ret);
+        }
+        return ret;
+    }
+
+    private void cacheDirectory(String key, File directory) {
+        if(directories.size()<MAX_DIRECTORIES) {
+            directories.putIfAbsent(key, directory);
+        }
+    }
+
+    /**
+     * Replaces system properties in absolute directory. They are read on each
+     * call, as they may be defined after the configuration has been loaded.
+     */
+    private String replaceProperties() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(absoluteLiterals[0]);
+        for(int i=0;i<absoluteProperties.length;i++) {
+            String propertyName = absoluteProperties[i];
+            String propertyValue = System.getProperty(propertyName);
+            if(propertyValue!=null) {
+                LOGGER.debug("Replace system property {} with value {}", propertyName, propertyValue);
+                sb.append(propertyValue);
+            } else {
+                if(undefinedProperties.putIfAbsent(propertyName, Boolean.TRUE)==null) {
+                    LOGGER.warn("System property "+propertyName+" is not defined");
+                }
+                sb.append("${").append(propertyName).append('}');
+            }
+            sb.append(absoluteLiterals[i+1]);
+        }
+        return sb.toString();
+    }
+
+    private String getFileName(File sourceFile, Map<QName,ParameterValue> parameters) {
+        String ret = fileName.render(parameters, true);
+        if(!usesSourceName) return ret;
+        // FIXME: this shouldn't be supported, it has been replaced by input-* pseudo-variables
+        String sourceName = sourceFile.getName();
+        int ix = sourceName.lastIndexOf('.');
+        String extension = ix<0 ? "" : sourceName.substring(ix);
+        String basename = ix<0 ? sourceName : sourceName.substring(0, ix);
+        ret = replace(ret, SOURCE_NAME, sourceName);
+        ret = replace(ret, SOURCE_BASENAME, basename);
+        return replace(ret, SOURCE_EXTENSION, extension);
+    }
+
+    private static String replace(String s, String token, String value) {
+        int pos = s.indexOf(token);
+        if(pos<0) return s;
+        StringBuilder sb = new StringBuilder(s.length()+value.length());
+        int from = 0;
+        while(pos>=0) {
+            sb.append(s, from, pos).append(value);
+            from = pos+token.length();
+            pos = s.indexOf(token, from);
+        }
+        return sb.append(s, from, s.length()).toString();
+    }
+
+}
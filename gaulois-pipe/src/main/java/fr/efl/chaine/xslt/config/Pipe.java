@@ -21,10 +21,32 @@ public class Pipe implements Verifiable {
     static final String ATTR_NB_THREADS = "nbThreads";
     static final String ATTR_MAX = "mutiThreadMaxSourceSize";
     static final String ATTR_TRACE = "traceOutput";
+    static final String ATTR_PREFETCH = "prefetch";
+    static final String ATTR_PREFETCH_MAX_SIZE = "prefetchMaxSize";
+    static final String ATTR_HUGE_FILES_THREADS = "hugeFilesThreads";
+    static final String ATTR_HEAP_BUDGET = "heapBudget";
+    static final String ATTR_EXPANSION_FACTOR = "expansionFactor";
+    static final String ATTR_PIPELINED = "pipelined";
+    static final String ATTR_STREAMING = "streaming";
+    static final String ATTR_INCREMENTAL = "incremental";
+    static final String ATTR_RESULT_CACHE = "resultCache";
+    static final String ATTR_RESULT_CACHE_MAX_SIZE = "resultCacheMaxSize";
+    static final String ATTR_RESULT_CACHE_IGNORE_LOCATION = "resultCacheIgnoreLocation";
     // par défaut, 10Mo
     private int multithreadMaxSourceSize = 10*1024*1024;
     private int nbThreads = 1;
     private String traceOutput;
+    private int prefetch = 0;
+    private long prefetchMaxSize = 0L;
+    private int hugeFilesThreads = 1;
+    private long heapBudget = 0L;
+    private double expansionFactor = 0.0;
+    private boolean pipelined = false;
+    private boolean streaming = false;
+    private boolean incremental = false;
+    private String resultCache;
+    private long resultCacheMaxSize = 0L;
+    private boolean resultCacheIgnoreLocation = false;
     private final List<ParametrableStep> steps;
     private Output output;
     private Tee tee;
@@ -55,6 +77,153 @@ public class Pipe implements Verifiable {
         this.nbThreads = nbThreads;
     }
 
+    /**
+     * Returns the number of input documents parsed ahead of the transformer threads.
+     * 0 means inputs are parsed by transformer threads.
+     * @return The number of documents parsed ahead
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Returns the max sum of input file sizes parsed ahead, in bytes.
+     * 0 means no limit.
+     * @return The max size of documents parsed ahead
+     */
+    public long getPrefetchMaxSize() {
+        return prefetchMaxSize;
+    }
+
+    public void setPrefetchMaxSize(long prefetchMaxSize) {
+        this.prefetchMaxSize = prefetchMaxSize;
+    }
+
+    /**
+     * Returns the number of threads used to process sources over 
+     * {@link #getMultithreadMaxSourceSize() }, concurrently with the other sources.
+     * @return The number of threads of huge files lane
+     */
+    public int getHugeFilesThreads() {
+        return hugeFilesThreads;
+    }
+
+    public void setHugeFilesThreads(int hugeFilesThreads) {
+        this.hugeFilesThreads = hugeFilesThreads;
+    }
+
+    /**
+     * Returns the heap budget shared by all threads, in bytes. An input is 
+     * processed only if its estimated heap cost fits in the budget.
+     * 0 means no admission control.
+     * @return The heap budget
+     */
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public void setHeapBudget(long heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Returns the ratio between the heap cost of an input and its file size.
+     * 0 means it is learned from parsed documents.
+     * @return The expansion factor
+     */
+    public double getExpansionFactor() {
+        return expansionFactor;
+    }
+
+    public void setExpansionFactor(double expansionFactor) {
+        this.expansionFactor = expansionFactor;
+    }
+
+    /**
+     * Returns <tt>true</tt> if each XSLT of this pipe runs on its own thread,
+     * handing its result tree to the next one.
+     * @return <tt>true</tt> if pipe is pipelined
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Returns <tt>true</tt> if input documents are not parsed as trees, but
+     * streamed to the first step of this pipe, that must be a java step.
+     * @return <tt>true</tt> if pipe is streaming
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns <tt>true</tt> if inputs whose outputs are up to date are skipped.
+     * A manifest is written next to each output, that records the input, 
+     * stylesheets and parameters the output has been produced from.
+     * @return <tt>true</tt> if pipe is incremental
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Returns the directory where outputs are stored, keyed by the hash of
+     * input content, parameters and pipe, so inputs with the same content 
+     * are processed only once. <tt>null</tt> means no result cache.
+     * @return The result cache directory
+     */
+    public String getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(String resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns the max size of the result cache, in bytes. 0 means no limit.
+     * @return The result cache max size
+     */
+    public long getResultCacheMaxSize() {
+        return resultCacheMaxSize;
+    }
+
+    public void setResultCacheMaxSize(long resultCacheMaxSize) {
+        this.resultCacheMaxSize = resultCacheMaxSize;
+    }
+
+    /**
+     * Returns <tt>true</tt> if input location pseudo-parameters (<tt>input-name</tt>,
+     * <tt>input-absolute</tt>, ...) are left out of the result cache key, so
+     * identical contents under different paths share their outputs. This is
+     * unsafe if XSLs depend on the input location.
+     * @return <tt>true</tt> if input location is not part of the result cache key
+     */
+    public boolean isResultCacheIgnoreLocation() {
+        return resultCacheIgnoreLocation;
+    }
+
+    public void setResultCacheIgnoreLocation(boolean resultCacheIgnoreLocation) {
+        this.resultCacheIgnoreLocation = resultCacheIgnoreLocation;
+    }
+
     public Iterator<ParametrableStep> getXslts() {
         return steps.iterator();
     }
@@ -76,10 +245,23 @@ public class Pipe implements Verifiable {
     public void verify() throws InvalidSyntaxException {
         for(ParametrableStep x:steps) x.verify();
         
-        boolean shouldHaveXsltAsFirstStep = !steps.isEmpty() || tee != null;
-        boolean hasXsltAsFirstStep = !steps.isEmpty() && steps.get(0) instanceof Xslt;
-        if(shouldHaveXsltAsFirstStep && !hasXsltAsFirstStep) {
-            throw new InvalidSyntaxException("The first step of a pipe must be an XSLT. Please add an identity XSL to start pipe.");      
+        if(streaming) {
+            if(steps.isEmpty() || !(steps.get(0) instanceof JavaStep)) {
+                throw new InvalidSyntaxException("The first step of a streaming pipe must be a java step.");
+            }
+            if(pipelined) {
+                throw new InvalidSyntaxException("A pipe can not be both streaming and pipelined.");
+            }
+            if(containsChoose()) {
+                // choose tests are evaluated on input tree, that is not built
+                throw new InvalidSyntaxException("A streaming pipe must not contain any choose.");
+            }
+        } else {
+            boolean shouldHaveXsltAsFirstStep = !steps.isEmpty() || tee != null;
+            boolean hasXsltAsFirstStep = !steps.isEmpty() && steps.get(0) instanceof Xslt;
+            if(shouldHaveXsltAsFirstStep && !hasXsltAsFirstStep) {
+                throw new InvalidSyntaxException("The first step of a pipe must be an XSLT. Please add an identity XSL to start pipe.");      
+            }
         }
         
         if(tee==null && output==null) {
@@ -95,6 +277,18 @@ public class Pipe implements Verifiable {
         }
     }
 
+    private boolean containsChoose() {
+        for(ParametrableStep step: steps) {
+            if(step instanceof ChooseStep) return true;
+        }
+        if(tee!=null) {
+            for(Pipe pipe: tee.getPipes()) {
+                if(pipe.containsChoose()) return true;
+            }
+        }
+        return false;
+    }
+
     public Output getOutput() {
         return output;
     }
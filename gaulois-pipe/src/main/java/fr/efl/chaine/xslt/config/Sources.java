@@ -8,12 +8,14 @@ package fr.efl.chaine.xslt.config;
 
 import net.sf.saxon.s9api.QName;
 import fr.efl.chaine.xslt.InvalidSyntaxException;
+import fr.efl.chaine.xslt.utils.ParallelSort;
+import fr.efl.chaine.xslt.utils.ProcessingHistory;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,18 +31,26 @@ public class Sources implements Verifiable {
     static final QName QNAME = new QName(Config.NS, "sources");
     static final QName ATTR_ORDERBY = new QName("orderBy");
     static final QName ATTR_SORT = new QName("sort");
+    static final QName ATTR_HISTORY_FILE = new QName("historyFile");
+    /**
+     * Default history file name, when sources are ordered by history
+     */
+    public static final String DEFAULT_HISTORY_FILE = ".gaulois-pipe-history";
     private final String orderBy, sort;
     private final List<CfgFile> files;
+    private final List<FolderSource> folders;
+    private List<CfgFile> sortedFiles;
+    private ProcessingHistory history;
     private long maxFileSize = 0l;
-    private Map<File,Integer> hrefCount;
+    private final Map<File,Integer> hrefCount;
     private Listener listener;
 
     
     public Sources(String orderBy, String sort) throws InvalidSyntaxException {
         if(orderBy==null) orderBy="size";
         if(sort==null) sort="desc";
-        if(!"size".equals(orderBy) && !"name".equals(orderBy) && !"define".equals(orderBy)) {
-            throw new InvalidSyntaxException("orderBy must be one of (size,name,define)");
+        if(!"size".equals(orderBy) && !"name".equals(orderBy) && !"define".equals(orderBy) && !"history".equals(orderBy)) {
+            throw new InvalidSyntaxException("orderBy must be one of (size,name,define,history)");
         } else {
             this.orderBy=orderBy;
         }
@@ -50,6 +60,7 @@ public class Sources implements Verifiable {
             this.sort = sort;
         }
         files = new ArrayList<>();
+        folders = new ArrayList<>();
         hrefCount = new HashMap<>();
     }
     public Sources(String orderBy) throws InvalidSyntaxException {
@@ -59,48 +70,80 @@ public class Sources implements Verifiable {
         this("size");
     }
     public List<CfgFile> getFiles() {
-        return getFiles(orderBy, sort);
+        LOGGER.trace("getFiles({}, {})", orderBy, sort);
+        if("define".equals(orderBy)) {
+            return files;
+        } else {
+            return new ArrayList<>(getSortedFiles());
+        }
     }
     
-    private static Comparator<CfgFile> getComparator(final String orderBy, final String sort) {
+    private Comparator<CfgFile> getComparator(final String orderBy, final String sort) {
+        if("history".equals(orderBy) && history!=null) {
+            // predicted once per file, a prediction may hash the file
+            final Map<CfgFile,Long> durations = new IdentityHashMap<>(files.size());
+            for(CfgFile file: files) {
+                durations.put(file, history.predict(file.getSource(), file.getLength(), file.getLastModified()));
+            }
+            return new Comparator<CfgFile>() {
+                @Override
+                public int compare(CfgFile t, CfgFile t1) {
+                    int ret = Long.compare(durations.get(t), durations.get(t1));
+                    return "desc".equals(sort) ? -ret : ret;
+                }
+            };
+        }
         return new Comparator<CfgFile>() {
             @Override
             public int compare(CfgFile t, CfgFile t1) {
-                long ret = "name".equals(orderBy) ? t.getSource().getName().compareTo(t1.getSource().getName()) : t.getSource().length()-t1.getSource().length();
-                if("desc".equals(sort)) ret = -ret;
-                if(ret==0l) {
-                    return (int)ret;
-                }
-                else if (ret<0l) return -1;
-                else return 1;
+                // on the sizes read once, not on the current ones
+                int ret = "name".equals(orderBy) ? t.getSource().getName().compareTo(t1.getSource().getName()) : Long.compare(t.getLength(), t1.getLength());
+                return "desc".equals(sort) ? -ret : ret;
             }
         };
     }
-    private List<CfgFile> getFiles(final String orderBy, final String sort) {
-        LOGGER.trace("getFiles({}, {})", orderBy, sort);
+    /**
+     * Returns the files, sorted as requested. They are sorted once, until a file is added.
+     */
+    private List<CfgFile> getSortedFiles() {
         if("define".equals(orderBy)) {
             return files;
-        } else {
+        }
+        if(sortedFiles==null) {
             LOGGER.trace("getFiles() sort {} files with orderBy={} and sort={}", new Object[]{files.size(), orderBy, sort});
             List<CfgFile> ret = new ArrayList<>(files);
-            Collections.sort(ret, getComparator(orderBy, sort));
-            LOGGER.trace("getFiles() return {} files", ret.size());
-            return ret;
+            ParallelSort.sort(ret, getComparator(orderBy, sort));
+            sortedFiles = ret;
         }
+        return sortedFiles;
     }
 
     public void addFile(CfgFile file) {
-        long fileLength = file.getSource().length();
-        LOGGER.info("adding file {} with length {}", file, fileLength);
+        long fileLength = file.getLength();
+        LOGGER.debug("adding file {} with length {}", file, fileLength);
         files.add(file);
+        sortedFiles = null;
         maxFileSize = Math.max(maxFileSize, fileLength);
-        Integer count = hrefCount.get(file.getSource());
-        if(count==null) {
-            count = 1;
-        } else {
-            count++;
+        countUsage(file.getSource());
+    }
+    /**
+     * Counts a usage of a file that is not added to sources, as the ones found
+     * while folders are scanned. May be called from several threads.
+     * @param f The file used
+     */
+    public void countUsage(File f) {
+        File key = getUsageKey(f);
+        synchronized(hrefCount) {
+            Integer count = hrefCount.get(key);
+            hrefCount.put(key, count==null ? 1 : count+1);
         }
-        hrefCount.put(file.getSource(), count);
+    }
+    /**
+     * Files are counted by their normalized absolute path, as a file defined
+     * by its href and the same one found in a folder have different paths.
+     */
+    private static File getUsageKey(File f) {
+        return new File(f.getAbsoluteFile().toURI().normalize());
     }
     public void addFiles(Collection<CfgFile> files) {
         // on énumère pour calculer la taille max
@@ -109,8 +152,53 @@ public class Sources implements Verifiable {
         }
     }
     
+    /**
+     * Adds a folder that will be scanned when pipe is launched. Only when sources
+     * are ordered by definition : files found are then processed after the
+     * files already added, and before the next ones.
+     * @param folder The folder to scan
+     */
+    public void addFolder(FolderSource folder) {
+        folder.setPosition(files.size());
+        folders.add(folder);
+    }
+    /**
+     * Returns the folders to scan when pipe is launched, in definition order.
+     * Their files are not part of {@link #getFiles() }.
+     * @return The folders to scan
+     */
+    public List<FolderSource> getFolders() {
+        return folders;
+    }
+    /**
+     * Returns the processing history sources are ordered by
+     * @return The history, or <tt>null</tt> if sources are not ordered by history
+     */
+    public ProcessingHistory getHistory() {
+        return history;
+    }
+    /**
+     * Sets the processing history to order sources by, when orderBy is <tt>history</tt>
+     * @param history The history
+     */
+    public void setHistory(ProcessingHistory history) {
+        this.history = history;
+        sortedFiles = null;
+    }
+    /**
+     * Returns <tt>true</tt> if sources are processed in the order they are defined
+     * @return <tt>true</tt> if orderBy is <tt>define</tt>
+     */
+    public boolean isOrderedByDefinition() {
+        return "define".equals(orderBy);
+    }
+    
     public int getFileUsage(File f) {
-        Integer ret =  hrefCount.get(f);
+        File key = getUsageKey(f);
+        Integer ret;
+        synchronized(hrefCount) {
+            ret = hrefCount.get(key);
+        }
         return ret==null ? 0 : ret;
     }
 
@@ -118,41 +206,52 @@ public class Sources implements Verifiable {
     public void verify() throws InvalidSyntaxException {
         // pas besoin de vérifier les orderBy et sort, ils sont immutables finaux et vérifiés dans le constructeur
         // on ne jette plus d'exception, juste un gros warning
-        if(files.isEmpty()) {
+        if(files.isEmpty() && folders.isEmpty()) {
             LOGGER.warn("No input file to process. If you have used a pattern to find files, check your regex.");
         }
         for(CfgFile f:files) f.verify();
         if(listener!=null) listener.verify();
     }
     
+    /**
+     * Returns <tt>true</tt> if a file or a folder is split in chunks
+     * @return <tt>true</tt> if a source defines <tt>splitOn</tt>
+     */
+    public boolean hasSplitSources() {
+        for(CfgFile f:files) {
+            if(f.getSplitOn()!=null) return true;
+        }
+        for(FolderSource folder:folders) {
+            if(folder.getSplitOn()!=null) return true;
+        }
+        return false;
+    }
+
     public boolean hasFileOverLimit(long limit) {
         return maxFileSize>limit;
     }
     
     public List<CfgFile> getFilesOverLimit(long limit) {
-        // on va quand même les renvoyer triés comme demandés
-        List<CfgFile> _files = getFiles("size", "asc");
-        List<CfgFile> ret = new ArrayList<>(_files.size());
-        for(CfgFile file: _files) {
-            if(file.getSource().length()>limit) {
-                ret.add(file);
-            }
-        }
-        Collections.sort(_files, getComparator(orderBy, sort));
+        List<CfgFile> ret = partition(limit, true);
         LOGGER.debug("getFilesOverLimit() -> {}", ret.size());
         return ret;
     }
     public List<CfgFile> getFilesUnderLimit(long limit) {
-        // on va quand même les renvoyer triés comme demandés
-        List<CfgFile> _files = getFiles("size", "asc");
+        List<CfgFile> ret = partition(limit, false);
+        LOGGER.debug("getFilesUnderLimit() -> {}", ret.size());
+        return ret;
+    }
+    /**
+     * Returns the files over, or under, <tt>limit</tt>, sorted as requested
+     */
+    private List<CfgFile> partition(long limit, boolean over) {
+        List<CfgFile> _files = getSortedFiles();
         List<CfgFile> ret = new ArrayList<>(_files.size());
         for(CfgFile file: _files) {
-            if(file.getSource().length()<=limit) {
+            if((file.getLength()>limit)==over) {
                 ret.add(file);
             }
         }
-        Collections.sort(_files, getComparator(orderBy, sort));
-        LOGGER.debug("getFilesUnderLimit() -> {}", ret.size());
         return ret;
     }
 
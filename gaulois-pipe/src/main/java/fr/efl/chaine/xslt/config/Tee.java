@@ -18,7 +18,9 @@ import net.sf.saxon.s9api.QName;
 public class Tee implements Verifiable {
     static final QName QNAME = new QName(Config.NS, "tee");
     static final QName PIPE = new QName(Config.NS, "pipe");
+    static final QName ATTR_PARALLEL = new QName("parallel");
     private List<Pipe> pipes = new ArrayList<>();
+    private boolean parallel = false;
     
     public Tee() {
         super();
@@ -31,6 +33,19 @@ public class Tee implements Verifiable {
     public void addPipe(Pipe pipe) {
         pipes.add(pipe);
     }
+
+    /**
+     * Returns <tt>true</tt> if sub-pipes run in parallel, each one on its own
+     * thread, on the same tree.
+     * @return <tt>true</tt> if sub-pipes run in parallel
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
     @Override
     public void verify() throws InvalidSyntaxException {
         if(pipes.size()<2) throw new InvalidSyntaxException("At least 2 sub-pipes are required");
@@ -38,7 +53,7 @@ public class Tee implements Verifiable {
     }
     public String toString(String prefix) {
         StringBuilder sb = new StringBuilder();
-        sb.append(prefix).append("tee").append("\n");
+        sb.append(prefix).append("tee").append(parallel ? " parallel" : "").append("\n");
         String _p = prefix.concat("  ");
         for(Pipe pipe:pipes) {
             sb.append(pipe.toString(_p));
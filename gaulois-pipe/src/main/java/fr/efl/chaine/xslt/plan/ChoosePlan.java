@@ -0,0 +1,39 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The precompiled form of a {@link fr.efl.chaine.xslt.config.ChooseStep}
+ * @author cmarchand
+ */
+public class ChoosePlan implements StepPlan {
+    private final List<WhenPlan> conditions;
+    private final boolean effectiveBooleanValue;
+
+    public ChoosePlan(List<WhenPlan> conditions, boolean effectiveBooleanValue) {
+        super();
+        this.conditions = Collections.unmodifiableList(conditions);
+        this.effectiveBooleanValue = effectiveBooleanValue;
+    }
+
+    public List<WhenPlan> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Returns <tt>true</tt> if tests are evaluated to their effective boolean value
+     * @return If effective boolean value is used
+     */
+    public boolean isEffectiveBooleanValue() {
+        return effectiveBooleanValue;
+    }
+
+}
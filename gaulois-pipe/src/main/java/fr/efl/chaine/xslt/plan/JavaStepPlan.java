@@ -0,0 +1,57 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+import fr.efl.chaine.xslt.InvalidSyntaxException;
+import fr.efl.chaine.xslt.StepJava;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The precompiled form of a {@link fr.efl.chaine.xslt.config.JavaStep}.
+ * The step constructor is looked up once.
+ * @author cmarchand
+ */
+public class JavaStepPlan implements StepPlan {
+    private final Constructor<? extends StepJava> constructor;
+    private final List<ParamPlan> params;
+
+    public JavaStepPlan(Class<? extends StepJava> stepClass, List<ParamPlan> params) throws InvalidSyntaxException {
+        super();
+        try {
+            this.constructor = stepClass.getConstructor();
+        } catch(NoSuchMethodException ex) {
+            throw new InvalidSyntaxException(ex);
+        }
+        this.params = Collections.unmodifiableList(params);
+    }
+
+    /**
+     * Creates a new instance of the step
+     * @return A new StepJava
+     * @throws InvalidSyntaxException If the step can not be instanciated
+     */
+    public StepJava newInstance() throws InvalidSyntaxException {
+        try {
+            return constructor.newInstance();
+        } catch(InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+            throw new InvalidSyntaxException(ex);
+        }
+    }
+
+    public Class<? extends StepJava> getStepClass() {
+        return constructor.getDeclaringClass();
+    }
+
+    public List<ParamPlan> getParams() {
+        return params;
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+import fr.efl.chaine.xslt.config.Output;
+import java.util.Collections;
+import java.util.Map;
+import net.sf.saxon.s9api.Serializer;
+
+/**
+ * The precompiled form of an {@link Output}.
+ * Output properties are translated once to Saxon serializer properties.
+ * @author cmarchand
+ */
+public class OutputPlan {
+    private final Output output;
+    private final Map<Serializer.Property,String> serializerProperties;
+
+    public OutputPlan(Output output, Map<Serializer.Property,String> serializerProperties) {
+        super();
+        this.output = output;
+        this.serializerProperties = Collections.unmodifiableMap(serializerProperties);
+    }
+
+    public Output getOutput() {
+        return output;
+    }
+
+    public Map<Serializer.Property, String> getSerializerProperties() {
+        return serializerProperties;
+    }
+
+}
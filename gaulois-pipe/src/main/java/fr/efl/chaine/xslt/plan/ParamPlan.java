@@ -0,0 +1,123 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+import fr.efl.chaine.xslt.utils.ConversionCache;
+import fr.efl.chaine.xslt.utils.ParameterTemplate;
+import fr.efl.chaine.xslt.utils.ParameterValue;
+import java.util.HashMap;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.type.ValidationException;
+import top.marchand.xml.gaulois.config.typing.Datatype;
+
+/**
+ * The precompiled form of a step parameter.
+ * If the parameter value does not reference any other parameter, it is
+ * converted once ; else, substitution and conversion are done for each document.
+ * @author cmarchand
+ */
+public class ParamPlan {
+    private final QName key;
+    private final XdmValue value;
+    private final ParameterTemplate template;
+    private final Datatype datatype;
+
+    private ParamPlan(QName key, XdmValue value, ParameterTemplate template, Datatype datatype) {
+        super();
+        this.key = key;
+        this.value = value;
+        this.template = template;
+        this.datatype = datatype;
+    }
+
+    /**
+     * Builds the ParamPlan of a parameter.
+     * @param pv The parameter
+     * @param configuration The Saxon configuration used to convert values
+     * @return The plan, or <tt>null</tt> if the parameter has no value
+     * @throws SaxonApiException If the value is not valid for its datatype
+     */
+    public static ParamPlan of(ParameterValue pv, Configuration configuration) throws SaxonApiException {
+        return of(pv, configuration, null);
+    }
+
+    /**
+     * Builds the ParamPlan of a parameter.
+     * @param pv The parameter
+     * @param configuration The Saxon configuration used to convert values
+     * @param cache The cache of converted values, may be <tt>null</tt>
+     * @return The plan, or <tt>null</tt> if the parameter has no value
+     * @throws SaxonApiException If the value is not valid for its datatype
+     */
+    public static ParamPlan of(ParameterValue pv, Configuration configuration, ConversionCache cache) throws SaxonApiException {
+        Object pValue = pv.getValue();
+        if(pValue instanceof String) {
+            String sValue = (String)pValue;
+            if(sValue.contains("$[")) {
+                return new ParamPlan(pv.getKey(), null, ParameterTemplate.compile(sValue), null);
+            }
+            return new ParamPlan(pv.getKey(), new XdmAtomicValue(sValue), null, null);
+        } else if(pValue instanceof XdmAtomicValue) {
+            String sValue = ((XdmAtomicValue)pValue).getStringValue();
+            if(sValue.contains("$[")) {
+                return new ParamPlan(pv.getKey(), null, ParameterTemplate.compile(sValue), pv.getDatatype());
+            }
+            return new ParamPlan(pv.getKey(), convert(pv.getDatatype(), sValue, configuration, cache), null, null);
+        } else if(pValue instanceof XdmValue) {
+            return new ParamPlan(pv.getKey(), (XdmValue)pValue, null, null);
+        }
+        return null;
+    }
+
+    public QName getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value of this parameter for a document
+     * @param parameters The parameters of the document, used for substitution
+     * @param configuration The Saxon configuration used to convert values
+     * @return The parameter value
+     * @throws SaxonApiException If the substituted value is not valid for its datatype
+     */
+    public XdmValue getValue(HashMap<QName,ParameterValue> parameters, Configuration configuration) throws SaxonApiException {
+        return getValue(parameters, configuration, null);
+    }
+
+    /**
+     * Returns the value of this parameter for a document
+     * @param parameters The parameters of the document, used for substitution
+     * @param configuration The Saxon configuration used to convert values
+     * @param cache The cache of converted values, may be <tt>null</tt>
+     * @return The parameter value
+     * @throws SaxonApiException If the substituted value is not valid for its datatype
+     */
+    public XdmValue getValue(HashMap<QName,ParameterValue> parameters, Configuration configuration, ConversionCache cache) throws SaxonApiException {
+        if(template==null) {
+            return value;
+        }
+        String sValue = template.render(parameters);
+        if(datatype==null) {
+            return new XdmAtomicValue(sValue);
+        }
+        return convert(datatype, sValue, configuration, cache);
+    }
+
+    private static XdmValue convert(Datatype datatype, String sValue, Configuration configuration, ConversionCache cache) throws SaxonApiException {
+        try {
+            return cache==null ? datatype.convert(sValue, configuration) : cache.convert(datatype, sValue, configuration);
+        } catch (ValidationException ex) {
+            throw new SaxonApiException(ex);
+        }
+    }
+
+}
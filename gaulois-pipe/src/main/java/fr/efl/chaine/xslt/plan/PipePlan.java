@@ -0,0 +1,57 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The precompiled form of a {@link fr.efl.chaine.xslt.config.Pipe}.
+ * It is built once from config, and only transformers and receivers are
+ * instanciated from it for each document.
+ * @author cmarchand
+ */
+public class PipePlan {
+    private final List<StepPlan> steps;
+    private final TeePlan tee;
+    private final OutputPlan output;
+    private final String description;
+
+    /**
+     * Constructs a new PipePlan
+     * @param steps The steps of the pipe
+     * @param tee The terminal tee, may be <tt>null</tt>
+     * @param output The terminal output, may be <tt>null</tt>
+     * @param description The pipe description, used in error messages
+     */
+    public PipePlan(List<StepPlan> steps, TeePlan tee, OutputPlan output, String description) {
+        super();
+        this.steps = Collections.unmodifiableList(steps);
+        this.tee = tee;
+        this.output = output;
+        this.description = description;
+    }
+
+    public List<StepPlan> getSteps() {
+        return steps;
+    }
+
+    public TeePlan getTee() {
+        return tee;
+    }
+
+    public OutputPlan getOutput() {
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+}
@@ -0,0 +1,16 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+/**
+ * A step of a {@link PipePlan}.
+ * A StepPlan is immutable, and is shared by all threads that process documents.
+ * @author cmarchand
+ */
+public interface StepPlan {
+}
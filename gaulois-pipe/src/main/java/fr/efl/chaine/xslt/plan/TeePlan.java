@@ -0,0 +1,35 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The precompiled form of a {@link fr.efl.chaine.xslt.config.Tee}
+ * @author cmarchand
+ */
+public class TeePlan {
+    private final List<PipePlan> pipes;
+    private final boolean parallel;
+
+    public TeePlan(List<PipePlan> pipes, boolean parallel) {
+        super();
+        this.pipes = Collections.unmodifiableList(pipes);
+        this.parallel = parallel;
+    }
+
+    public List<PipePlan> getPipes() {
+        return pipes;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+}
@@ -0,0 +1,42 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+import net.sf.saxon.s9api.XPathExecutable;
+
+
+/**
+ * The precompiled form of a {@link fr.efl.chaine.xslt.config.WhenEntry}.
+ * The test is compiled once ; a new selector has to be loaded for each evaluation.
+ * The steps of the when are a {@link PipePlan} without terminal step.
+ * @author cmarchand
+ */
+public class WhenPlan {
+    private final String test;
+    private final XPathExecutable testExecutable;
+    private final PipePlan pipe;
+
+    public WhenPlan(String test, XPathExecutable testExecutable, PipePlan pipe) {
+        super();
+        this.test = test;
+        this.testExecutable = testExecutable;
+        this.pipe = pipe;
+    }
+
+    public String getTest() {
+        return test;
+    }
+
+    public XPathExecutable getTestExecutable() {
+        return testExecutable;
+    }
+
+    public PipePlan getPipe() {
+        return pipe;
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+
+import fr.efl.chaine.xslt.utils.CompiledXsl;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The precompiled form of a {@link fr.efl.chaine.xslt.config.Xslt}.
+ * If the href does not depend on parameters, the XSL is compiled once, and
+ * its <tt>gp:static-base-uri</tt> is computed once. Else, <tt>compiledXsl</tt> is
+ * <tt>null</tt>, and XSL has to be get from cache for each document.
+ * @author cmarchand
+ */
+public class XsltPlan implements StepPlan {
+    private final String href;
+    private final CompiledXsl compiledXsl;
+    private final List<ParamPlan> params;
+    private final boolean traceToAdd;
+    private final boolean debug;
+    private final String id;
+
+    public XsltPlan(String href, CompiledXsl compiledXsl, List<ParamPlan> params, boolean traceToAdd, boolean debug, String id) {
+        super();
+        this.href = href;
+        this.compiledXsl = compiledXsl;
+        this.params = Collections.unmodifiableList(params);
+        this.traceToAdd = traceToAdd;
+        this.debug = debug;
+        this.id = id;
+    }
+
+    public String getHref() {
+        return href;
+    }
+
+    /**
+     * Returns the compiled XSL
+     * @return The compiled XSL, or <tt>null</tt> if href depends on parameters
+     */
+    public CompiledXsl getCompiledXsl() {
+        return compiledXsl;
+    }
+
+    public List<ParamPlan> getParams() {
+        return params;
+    }
+
+    public boolean isTraceToAdd() {
+        return traceToAdd;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.expr.parser.ExplicitLocation;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.CopyOptions;
+import net.sf.saxon.om.NameOfNode;
+import net.sf.saxon.om.NamespaceBinding;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.type.Untyped;
+
+/**
+ * Writes the results of the chunks of a split input to a Receiver, as a single
+ * document : the root element of the first result, with its attributes and
+ * namespaces, that contains the children of the root element of each result.
+ * Results must be added in chunk order ; each one is written when added, and
+ * is not referenced any more.
+ * @author cmarchand
+ */
+public class ChunkMerger {
+    private final Receiver out;
+    private boolean opened = false;
+    private boolean rootWritten = false;
+
+    /**
+     * Constructs a new merger
+     * @param out The receiver merged document is written to
+     */
+    public ChunkMerger(Receiver out) {
+        super();
+        this.out = out;
+    }
+
+    /**
+     * Writes the result of the next chunk
+     * @param result The chunk result
+     * @throws SaxonApiException If result can not be written
+     */
+    public void add(XdmNode result) throws SaxonApiException {
+        try {
+            NodeInfo root = getRootElement(result.getUnderlyingNode());
+            if(!opened) {
+                open();
+                if(root!=null) {
+                    startRoot(root);
+                }
+            }
+            // as xsl:copy-of, the first result defines if there is a root element
+            if(root==null || !rootWritten) return;
+            AxisIterator children = root.iterateAxis(AxisInfo.CHILD);
+            NodeInfo child;
+            while((child=children.next())!=null) {
+                child.copy(out, CopyOptions.ALL_NAMESPACES, ExplicitLocation.UNKNOWN_LOCATION);
+            }
+        } catch(XPathException ex) {
+            throw new SaxonApiException(ex);
+        }
+    }
+
+    /**
+     * Ends the merged document. If no result has been added, it is empty.
+     * @throws SaxonApiException If document can not be written
+     */
+    public void close() throws SaxonApiException {
+        try {
+            if(!opened) {
+                open();
+            }
+            if(rootWritten) {
+                out.endElement();
+            }
+            out.endDocument();
+            out.close();
+        } catch(XPathException ex) {
+            throw new SaxonApiException(ex);
+        }
+    }
+
+    private void open() throws XPathException {
+        out.open();
+        out.startDocument(0);
+        opened = true;
+    }
+
+    private void startRoot(NodeInfo root) throws XPathException {
+        out.startElement(NameOfNode.makeName(root), Untyped.getInstance(), ExplicitLocation.UNKNOWN_LOCATION, 0);
+        NamespaceBinding[] namespaces = root.getDeclaredNamespaces(null);
+        for(NamespaceBinding ns: namespaces) {
+            if(ns==null) break;
+            out.namespace(ns, 0);
+        }
+        AxisIterator attributes = root.iterateAxis(AxisInfo.ATTRIBUTE);
+        NodeInfo attribute;
+        while((attribute=attributes.next())!=null) {
+            attribute.copy(out, 0, ExplicitLocation.UNKNOWN_LOCATION);
+        }
+        out.startContent();
+        rootWritten = true;
+    }
+
+    private static NodeInfo getRootElement(NodeInfo document) {
+        if(document.getNodeKind()==Type.ELEMENT) return document;
+        return document.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT).next();
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.s9api.XsltExecutable;
+
+/**
+ * A compiled XSL, with the system id it has been resolved to.
+ * Keeping the system id with the compiled XSL avoids to resolve the XSL
+ * href again each time a transformer is created.
+ * @author cmarchand
+ */
+public class CompiledXsl {
+    private final XsltExecutable executable;
+    private final String systemId;
+    private final XdmValue staticBaseUri;
+
+    /**
+     * Constructs a new CompiledXsl
+     * @param executable The compiled XSL
+     * @param systemId The system id the XSL href has been resolved to
+     * @param staticBaseUri The value of <tt>gp:static-base-uri</tt> parameter, may be <tt>null</tt>
+     */
+    public CompiledXsl(XsltExecutable executable, String systemId, XdmValue staticBaseUri) {
+        super();
+        this.executable = executable;
+        this.systemId = systemId;
+        this.staticBaseUri = staticBaseUri;
+    }
+
+    public XsltExecutable getExecutable() {
+        return executable;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    public XdmValue getStaticBaseUri() {
+        return staticBaseUri;
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.type.ValidationException;
+import top.marchand.xml.gaulois.config.typing.Datatype;
+
+/**
+ * A thread-safe cache of typed parameter values, keyed by datatype and by
+ * the (substituted) string they are converted from. A parameter whose value
+ * does not change from one document to another is converted only once ;
+ * for document-typed parameters, the document is parsed only once.
+ * Converted values are immutable, and are shared between transformations.
+ * When the cache is full, least recently used values are removed.
+ * @author cmarchand
+ */
+public class ConversionCache {
+    /**
+     * Default max number of values
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    private final LinkedHashMap<Key,XdmValue> values;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * Constructs a new cache
+     * @param maxEntries The max number of values kept
+     */
+    public ConversionCache(final int maxEntries) {
+        super();
+        values = new LinkedHashMap<Key,XdmValue>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,XdmValue> eldest) {
+                return size()>maxEntries;
+            }
+        };
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    /**
+     * Returns the value of <tt>input</tt> converted to <tt>datatype</tt>.
+     * Conversion is done out of lock : the same value may be converted twice
+     * by concurrent threads.
+     * @param datatype The datatype
+     * @param input The string to convert
+     * @param configuration The Saxon configuration used to convert
+     * @return The converted value
+     * @throws ValidationException If <tt>input</tt> is not valid for <tt>datatype</tt>
+     */
+    public XdmValue convert(Datatype datatype, String input, Configuration configuration) throws ValidationException {
+        if(input==null) {
+            return datatype.convert(input, configuration);
+        }
+        Key key = new Key(datatype, input);
+        XdmValue ret;
+        synchronized(this) {
+            ret = values.get(key);
+        }
+        if(ret!=null) {
+            hits.incrementAndGet();
+            return ret;
+        }
+        misses.incrementAndGet();
+        ret = datatype.convert(input, configuration);
+        synchronized(this) {
+            values.put(key, ret);
+        }
+        return ret;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+    public long getMisses() {
+        return misses.get();
+    }
+    public synchronized int size() {
+        return values.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConversionCache{size="+values.size()+", hits="+hits.get()+", misses="+misses.get()+"}";
+    }
+
+    private static class Key {
+        private final Datatype datatype;
+        private final String input;
+        private final int hash;
+        Key(Datatype datatype, String input) {
+            this.datatype = datatype;
+            this.input = input;
+            hash = 31*System.identityHashCode(datatype)+input.hashCode();
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) return false;
+            Key other = (Key)obj;
+            return datatype==other.datatype && input.equals(other.input);
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the files of a directory tree that match a filter. Each directory is
+ * read by its own task, so sub-directories are scanned in parallel.
+ * Files are given to the handler as soon as they are found, with the
+ * attributes read while scanning ; the handler is called from scanning threads,
+ * so it must be thread-safe.
+ * Symbolic links are followed ; a directory reached twice is scanned once.
+ * @author cmarchand
+ */
+public class DirectoryScanner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryScanner.class);
+    private final int nbThreads;
+
+    /**
+     * Receives the files found
+     */
+    public interface Handler {
+        void file(Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * Constructs a new scanner
+     * @param nbThreads The number of directories read at the same time
+     */
+    public DirectoryScanner(int nbThreads) {
+        super();
+        this.nbThreads = Math.max(1, nbThreads);
+    }
+
+    /**
+     * Constructs a new scanner, with one thread per available processor
+     */
+    public DirectoryScanner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Scans <tt>directory</tt>, and returns when all files have been given to <tt>handler</tt>.
+     * @param directory The directory to scan
+     * @param filter The filter files must match
+     * @param recurse If sub-directories must be scanned
+     * @param handler The handler that receives files
+     * @throws IOException If a directory can not be read
+     * @throws InterruptedException If interrupted while waiting for scanning tasks
+     */
+    public void scan(Path directory, FilenameFilter filter, boolean recurse, Handler handler) throws IOException, InterruptedException {
+        ExecutorService service = Executors.newFixedThreadPool(nbThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "directory-scanner-"+count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Scan scan = new Scan(service, filter, recurse, handler);
+        try {
+            scan.firstVisit(directory, Files.readAttributes(directory, BasicFileAttributes.class));
+            scan.submit(directory);
+            scan.done.await();
+        } finally {
+            service.shutdownNow();
+        }
+        if(scan.error.get()!=null) {
+            throw scan.error.get();
+        }
+    }
+
+    /**
+     * The state of one scan
+     */
+    private static class Scan {
+        private final ExecutorService service;
+        private final FilenameFilter filter;
+        private final boolean recurse;
+        private final Handler handler;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<IOException> error = new AtomicReference<>();
+        private final ConcurrentHashMap<Object,Boolean> visited = new ConcurrentHashMap<>();
+
+        Scan(ExecutorService service, FilenameFilter filter, boolean recurse, Handler handler) {
+            this.service = service;
+            this.filter = filter;
+            this.recurse = recurse;
+            this.handler = handler;
+        }
+
+        void submit(final Path dir) {
+            pending.incrementAndGet();
+            service.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        read(dir);
+                    } catch(IOException ex) {
+                        error.compareAndSet(null, ex);
+                    } catch(RuntimeException ex) {
+                        error.compareAndSet(null, new IOException("while scanning "+dir, ex));
+                    } finally {
+                        if(pending.decrementAndGet()==0) {
+                            done.countDown();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Reads the entries of <tt>dir</tt> only ; sub-directories are submitted as new tasks
+         */
+        private void read(final Path dir) throws IOException {
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if(attrs.isDirectory()) {
+                        if(recurse && firstVisit(file, attrs)) {
+                            submit(file);
+                        }
+                    } else if(filter.accept(dir.toFile(), file.getFileName().toString())) {
+                        handler.file(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+                    if(file.equals(dir)) {
+                        throw ex;
+                    }
+                    LOGGER.warn("unable to read "+file+": "+ex.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        private boolean firstVisit(Path dir, BasicFileAttributes attrs) {
+            Object key = attrs.fileKey();
+            if(key==null) {
+                try {
+                    key = dir.toRealPath();
+                } catch(IOException ex) {
+                    key = dir.toAbsolutePath().normalize();
+                }
+            }
+            return visited.putIfAbsent(key, Boolean.TRUE)==null;
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.tree.tiny.TinyTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread-safe cache of source documents.
+ * Each document is loaded only once : threads that need a document while it
+ * is loaded wait for this load to complete. Least recently used documents are
+ * evicted when the cache is full. If a load fails, the entry is removed, so
+ * a later call will retry.
+ * If a max size in bytes is given, the memory footprint of each document is
+ * estimated once loaded, and least recently used documents are evicted until
+ * the cache fits in this size. A document bigger than this size is not kept.
+ * Documents that are not TinyTrees are estimated from the size of their file ;
+ * if they have no file, they can not be estimated, and are not kept.
+ * @author cmarchand
+ */
+public class DocumentCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentCache.class);
+    /**
+     * Estimated bytes per node in a TinyTree : kind, depth, next, alpha, beta, name code,
+     * plus arrays growth margin
+     */
+    private static final int BYTES_PER_NODE = 32;
+    /**
+     * Estimated bytes per attribute : parent, name code, and the value String
+     */
+    private static final int BYTES_PER_ATTRIBUTE = 64;
+    private static final int BYTES_PER_NAMESPACE = 16;
+    /**
+     * Ratio between memory footprint and file size, for documents that are not TinyTrees
+     */
+    private static final double FILE_EXPANSION_FACTOR = HeapBudget.DEFAULT_EXPANSION_FACTOR;
+    private final int cacheSize;
+    private final long maxBytes;
+    private final LinkedHashMap<String,Future<XdmNode>> cache;
+    private final HashMap<String,Long> weights;
+    private long weight;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong waitTime;
+    private final AtomicBoolean unknownSizeWarned;
+
+    /**
+     * Constructs a new DocumentCache
+     * @param cacheSize The maximal number of documents in cache
+     */
+    public DocumentCache(final int cacheSize) {
+        this(cacheSize, 0L);
+    }
+    /**
+     * Constructs a new DocumentCache
+     * @param cacheSize The maximal number of documents in cache
+     * @param maxBytes The maximal estimated size of documents in cache, in bytes. 0 means no limit.
+     */
+    public DocumentCache(final int cacheSize, final long maxBytes) {
+        super();
+        if(cacheSize<1) throw new IllegalArgumentException("cacheSize must be at least 1");
+        if(maxBytes<0) throw new IllegalArgumentException("maxBytes must not be negative");
+        this.cacheSize = cacheSize;
+        this.maxBytes = maxBytes;
+        weights = new HashMap<>();
+        // access-order, to evict the least recently used
+        cache = new LinkedHashMap<String,Future<XdmNode>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Future<XdmNode>> eldest) {
+                boolean ret = size()>DocumentCache.this.cacheSize;
+                if(ret) {
+                    LOGGER.debug("removing entry from documentCache : "+eldest.getKey());
+                    removeWeight(eldest.getKey());
+                }
+                return ret;
+            }
+        };
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        waitTime = new AtomicLong();
+        unknownSizeWarned = new AtomicBoolean();
+    }
+
+    /**
+     * Returns the document identified by <tt>key</tt>. If it is not in cache,
+     * <tt>loader</tt> is called, in the calling thread, to load it.
+     * @param key The document key, usually its absolute path
+     * @param loader The loader to call if document is not in cache
+     * @return The document
+     * @throws SaxonApiException If document can not be parsed
+     * @throws IOException If document can not be read
+     */
+    public XdmNode get(final String key, final Callable<XdmNode> loader) throws SaxonApiException, IOException {
+        Future<XdmNode> future;
+        FutureTask<XdmNode> task = null;
+        synchronized(cache) {
+            future = cache.get(key);
+            if(future==null) {
+                task = new FutureTask<>(loader);
+                future = task;
+                cache.put(key, task);
+            }
+        }
+        if(task!=null) {
+            misses.incrementAndGet();
+            task.run();
+            if(maxBytes>0) {
+                weigh(key, task);
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        try {
+            if(task==null && !future.isDone()) {
+                long start = System.nanoTime();
+                try {
+                    return future.get();
+                } finally {
+                    waitTime.addAndGet(System.nanoTime()-start);
+                }
+            }
+            return future.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SaxonApiException("interrupted while waiting for "+key+" loading", ex);
+        } catch(ExecutionException ex) {
+            synchronized(cache) {
+                if(cache.get(key)==future) {
+                    cache.remove(key);
+                    removeWeight(key);
+                }
+            }
+            Throwable cause = ex.getCause();
+            if(cause instanceof SaxonApiException) {
+                throw (SaxonApiException)cause;
+            } else if(cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new SaxonApiException(cause);
+        }
+    }
+
+    /**
+     * Records the weight of a loaded document, and evicts least recently used
+     * documents while the cache is over its max size.
+     * Documents still loading are not evicted, their weight is not known yet.
+     */
+    private void weigh(String key, Future<XdmNode> future) {
+        if(!future.isDone()) return;
+        long docWeight;
+        try {
+            docWeight = estimateWeight(future.get());
+        } catch(InterruptedException | ExecutionException ex) {
+            // failure will be handled by caller
+            return;
+        }
+        synchronized(cache) {
+            if(cache.get(key)!=future) return;
+            if(docWeight<0) {
+                if(unknownSizeWarned.compareAndSet(false, true)) {
+                    LOGGER.warn("Size of "+key+" can not be estimated, documents with unknown size are not kept in documentCache");
+                }
+                cache.remove(key);
+                return;
+            }
+            if(docWeight>maxBytes) {
+                LOGGER.debug(key+" is bigger than documentCache max size ("+docWeight+" bytes), not kept in cache");
+                cache.remove(key);
+                return;
+            }
+            weights.put(key, docWeight);
+            weight += docWeight;
+            Iterator<Map.Entry<String,Future<XdmNode>>> it = cache.entrySet().iterator();
+            while(weight>maxBytes && it.hasNext()) {
+                Map.Entry<String,Future<XdmNode>> entry = it.next();
+                if(entry.getValue().isDone() && !entry.getKey().equals(key)) {
+                    LOGGER.debug("removing entry from documentCache : "+entry.getKey());
+                    it.remove();
+                    removeWeight(entry.getKey());
+                }
+            }
+        }
+    }
+    /**
+     * Returns the estimated footprint of a document in cache, or -1 if it can not be estimated
+     */
+    private static long estimateWeight(XdmNode document) {
+        if(document.getUnderlyingNode() instanceof TinyNodeImpl) {
+            return estimateSize(document);
+        }
+        URI uri = document.getDocumentURI();
+        if(uri==null || !"file".equals(uri.getScheme())) return -1L;
+        File file;
+        try {
+            file = new File(uri);
+        } catch(IllegalArgumentException ex) {
+            return -1L;
+        }
+        if(!file.isFile()) return -1L;
+        return (long)(file.length()*FILE_EXPANSION_FACTOR);
+    }
+    /**
+     * Must be called with lock on cache
+     */
+    private void removeWeight(String key) {
+        Long w = weights.remove(key);
+        if(w!=null) {
+            weight -= w;
+        }
+    }
+
+    /**
+     * Estimates the memory footprint of a document, in bytes.
+     * For TinyTree documents, it is based on number of nodes, attributes and
+     * namespaces, and on the size of text buffers. For other tree models, it returns 0 ;
+     * the cache then estimates them from their file size.
+     * @param document The document
+     * @return The estimated footprint, in bytes
+     */
+    public static long estimateSize(XdmNode document) {
+        if(!(document.getUnderlyingNode() instanceof TinyNodeImpl)) {
+            return 0L;
+        }
+        TinyTree tree = ((TinyNodeImpl)document.getUnderlyingNode()).getTree();
+        long ret = (long)tree.getNumberOfNodes()*BYTES_PER_NODE;
+        ret += (long)tree.getNumberOfAttributes()*BYTES_PER_ATTRIBUTE;
+        ret += (long)tree.getNumberOfNamespaces()*BYTES_PER_NAMESPACE;
+        if(tree.getCharacterBuffer()!=null) {
+            ret += 2L*tree.getCharacterBuffer().length();
+        }
+        if(tree.getCommentBuffer()!=null) {
+            ret += 2L*tree.getCommentBuffer().length();
+        }
+        return ret;
+    }
+    /**
+     * Returns the estimated size of documents in cache, in bytes.
+     * It is computed only if cache has a max size in bytes.
+     * @return The estimated cache size
+     */
+    public long getWeight() {
+        synchronized(cache) {
+            return weight;
+        }
+    }
+
+    /**
+     * Returns the number of documents in cache, including the ones actually loaded
+     * @return The cache size
+     */
+    public int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+    /**
+     * Returns the number of calls that have not required to load the document
+     * @return Cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    /**
+     * Returns the number of documents loaded
+     * @return Cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    /**
+     * Returns the total time threads have waited for a document loaded by
+     * another thread, in milliseconds.
+     * @return The cumulated wait time
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentCache{size="+size()+(maxBytes>0 ? ", bytes="+getWeight() : "")+", hits="+getHits()+", misses="+getMisses()+", waitTime="+getWaitTime()+"ms}";
+    }
+
+}
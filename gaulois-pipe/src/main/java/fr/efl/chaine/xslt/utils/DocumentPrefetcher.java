@@ -0,0 +1,240 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses inputs ahead of the threads that transform them.
+ * Inputs are parsed in the order they have been given, on dedicated threads.
+ * The number of documents parsed ahead and not yet released is bounded, and
+ * so is the sum of their file sizes.
+ * If a thread needs a document that has not yet been scheduled for parsing,
+ * it parses it itself, and the document will not be parsed a second time.
+ * @author cmarchand
+ */
+public class DocumentPrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentPrefetcher.class);
+
+    /**
+     * The loader used to parse a document
+     */
+    public interface Loader {
+        XdmNode load(ParametrableFile input) throws Exception;
+    }
+
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final Loader loader;
+    private final ThreadFactory threadFactory;
+    private final ExecutorService ioService;
+    private final ConcurrentMap<ParametrableFile,Entry> entries;
+    private final Object budgetLock = new Object();
+    private int reservedDocuments;
+    private long reservedBytes;
+    private Thread feeder;
+    private final AtomicLong prefetched;
+    private final AtomicLong waitTime;
+
+    /**
+     * Constructs a new prefetcher
+     * @param maxDocuments The max number of documents parsed ahead
+     * @param maxBytes The max sum of file sizes of documents parsed ahead. 0 means no limit.
+     * @param ioThreads The number of threads used to parse
+     * @param loader The loader used to parse a document
+     * @param threadFactory The thread factory to use
+     */
+    public DocumentPrefetcher(int maxDocuments, long maxBytes, int ioThreads, Loader loader, ThreadFactory threadFactory) {
+        super();
+        if(maxDocuments<1) throw new IllegalArgumentException("maxDocuments must be at least 1");
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+        this.threadFactory = threadFactory;
+        ioService = Executors.newFixedThreadPool(Math.max(1, ioThreads), threadFactory);
+        entries = new ConcurrentHashMap<>();
+        prefetched = new AtomicLong();
+        waitTime = new AtomicLong();
+    }
+
+    /**
+     * Starts parsing <tt>inputs</tt>, in this order, in background.
+     * @param inputs The inputs to parse ahead
+     */
+    public void start(final List<ParametrableFile> inputs) {
+        feeder = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for(ParametrableFile input: inputs) {
+                        long size = input.getFile().length();
+                        reserve(size);
+                        Entry entry = new Entry(newTask(input), size);
+                        if(entries.putIfAbsent(input, entry)==null) {
+                            ioService.execute(entry.task);
+                            prefetched.incrementAndGet();
+                        } else {
+                            // already taken, or even released, by a transformer thread
+                            release(size);
+                        }
+                    }
+                } catch(InterruptedException ex) {
+                    LOGGER.debug("prefetch interrupted");
+                }
+            }
+        });
+        feeder.start();
+    }
+
+    /**
+     * Returns the document of <tt>input</tt>, waiting for it to be parsed
+     * if required. If it has not been scheduled yet, it is parsed in the calling thread.
+     * {@link #release(fr.efl.chaine.xslt.utils.ParametrableFile) } must be called once document has been taken.
+     * @param input The input to get the document of
+     * @return The document
+     * @throws SaxonApiException If document can not be parsed
+     * @throws IOException If document can not be read
+     */
+    public XdmNode take(ParametrableFile input) throws SaxonApiException, IOException {
+        Entry entry = new Entry(newTask(input), -1L);
+        Entry existing = entries.putIfAbsent(input, entry);
+        if(existing==RELEASED) {
+            // same input given twice : parse it again, out of budget
+            existing = null;
+        }
+        try {
+            if(existing==null) {
+                entry.task.run();
+                return entry.task.get();
+            }
+            if(!existing.task.isDone()) {
+                long start = System.nanoTime();
+                try {
+                    return existing.task.get();
+                } finally {
+                    waitTime.addAndGet(System.nanoTime()-start);
+                }
+            }
+            return existing.task.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SaxonApiException("interrupted while waiting for "+input+" parsing", ex);
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof SaxonApiException) {
+                throw (SaxonApiException)cause;
+            } else if(cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new SaxonApiException(cause);
+        }
+    }
+
+    /**
+     * Releases the document of <tt>input</tt>, so another one can be parsed ahead.
+     * @param input The input whose document has been taken
+     */
+    public void release(ParametrableFile input) {
+        // keep a marker, so the feeder does not parse it again
+        Entry entry = entries.put(input, RELEASED);
+        if(entry!=null && entry!=RELEASED && entry.reserved>=0) {
+            release(entry.reserved);
+        }
+    }
+
+    /**
+     * Stops parsing ahead, and releases threads.
+     */
+    public void shutdown() {
+        if(feeder!=null) {
+            feeder.interrupt();
+        }
+        ioService.shutdown();
+    }
+
+    /**
+     * Returns the number of documents parsed ahead
+     * @return The number of documents parsed by prefetch threads
+     */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+    /**
+     * Returns the total time transformer threads have waited for a document
+     * to be parsed, in milliseconds.
+     * @return The cumulated wait time
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentPrefetcher{prefetched="+getPrefetched()+", waitTime="+getWaitTime()+"ms}";
+    }
+
+    private FutureTask<XdmNode> newTask(final ParametrableFile input) {
+        return new FutureTask<>(new Callable<XdmNode>() {
+            @Override
+            public XdmNode call() throws Exception {
+                return loader.load(input);
+            }
+        });
+    }
+
+    private void reserve(long size) throws InterruptedException {
+        synchronized(budgetLock) {
+            // a document bigger than maxBytes is accepted when nothing else is reserved
+            while(reservedDocuments>=maxDocuments || (maxBytes>0 && reservedDocuments>0 && reservedBytes+size>maxBytes)) {
+                budgetLock.wait();
+            }
+            reservedDocuments++;
+            reservedBytes+=size;
+        }
+    }
+    private void release(long size) {
+        synchronized(budgetLock) {
+            reservedDocuments--;
+            reservedBytes-=size;
+            budgetLock.notifyAll();
+        }
+    }
+
+    private static final Entry RELEASED = new Entry(null, -1L);
+
+    private static class Entry {
+        private final FutureTask<XdmNode> task;
+        /**
+         * The reserved size ; -1 if the entry has been created by a transformer thread, and so is not in budget
+         */
+        private final long reserved;
+        Entry(FutureTask<XdmNode> task, long reserved) {
+            this.task = task;
+            this.reserved = reserved;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A global heap budget, shared by all threads that process inputs.
+ * Before an input is processed, its heap cost is estimated as its file size
+ * multiplied by an expansion factor, and reserved against the budget. If the
+ * budget is exhausted, the thread waits until enough is released.
+ * Reservations are granted in the order they have been asked for, so a big
+ * input can not be starved by small ones. An input bigger than the whole
+ * budget is admitted when nothing else is reserved.
+ * If no expansion factor is given, it is learned from the estimated size of
+ * parsed documents.
+ * @author cmarchand
+ */
+public class HeapBudget {
+    /**
+     * The expansion factor used until one has been learned
+     */
+    public static final double DEFAULT_EXPANSION_FACTOR = 5.0;
+    /**
+     * Files smaller than this are not used to learn expansion factor, their
+     * ratio is mainly fixed overhead
+     */
+    private static final long MIN_LEARNING_SIZE = 4*1024;
+    /**
+     * Weight of the last observed ratio in the learned factor
+     */
+    private static final double LEARNING_RATE = 0.2;
+    private final long maxBytes;
+    private final boolean learning;
+    private double expansionFactor;
+    private long reserved;
+    private long maxReserved;
+    private long nextTicket;
+    private long servedTicket;
+    private long waitTime;
+    private final Set<Long> abandonedTickets = new HashSet<>();
+
+    /**
+     * Constructs a new heap budget
+     * @param maxBytes The budget, in bytes
+     * @param expansionFactor The ratio between heap cost and file size. If 0 or less, it is learned.
+     */
+    public HeapBudget(long maxBytes, double expansionFactor) {
+        super();
+        if(maxBytes<1) throw new IllegalArgumentException("maxBytes must be positive");
+        this.maxBytes = maxBytes;
+        this.learning = expansionFactor<=0;
+        this.expansionFactor = learning ? DEFAULT_EXPANSION_FACTOR : expansionFactor;
+    }
+
+    /**
+     * Reserves the estimated heap cost of a file, waiting until budget allows it.
+     * @param fileSize The file size, in bytes
+     * @return The reserved cost, to give back to {@link #release(long) }
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized long acquire(long fileSize) throws InterruptedException {
+        long ticket = nextTicket++;
+        long cost = (long)(fileSize*expansionFactor);
+        long start = System.nanoTime();
+        boolean waited = false;
+        try {
+            while(ticket!=servedTicket || (reserved>0 && reserved+cost>maxBytes)) {
+                waited = true;
+                wait();
+            }
+        } catch(InterruptedException ex) {
+            if(ticket==servedTicket) {
+                nextServed();
+            } else {
+                // this ticket will never be served, it must be skipped
+                abandonedTickets.add(ticket);
+            }
+            throw ex;
+        }
+        if(waited) {
+            waitTime += System.nanoTime()-start;
+        }
+        nextServed();
+        reserved += cost;
+        maxReserved = Math.max(maxReserved, reserved);
+        return cost;
+    }
+    /**
+     * Must be called with lock on this
+     */
+    private void nextServed() {
+        servedTicket++;
+        while(abandonedTickets.remove(servedTicket)) {
+            servedTicket++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Releases a cost previously reserved
+     * @param cost The cost returned by {@link #acquire(long) }
+     */
+    public synchronized void release(long cost) {
+        reserved -= cost;
+        notifyAll();
+    }
+
+    /**
+     * Learns the expansion factor from a parsed document, if no expansion factor has been configured.
+     * @param fileSize The file size, in bytes
+     * @param documentSize The estimated size of the parsed document, in bytes
+     */
+    public synchronized void learn(long fileSize, long documentSize) {
+        if(!learning || fileSize<MIN_LEARNING_SIZE || documentSize<=0) return;
+        double ratio = (double)documentSize/fileSize;
+        expansionFactor = (1-LEARNING_RATE)*expansionFactor + LEARNING_RATE*ratio;
+    }
+
+    public synchronized double getExpansionFactor() {
+        return expansionFactor;
+    }
+    /**
+     * Returns the actually reserved bytes
+     * @return The reserved bytes
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+    /**
+     * Returns the maximum of bytes that have been reserved at the same time
+     * @return The peak of reserved bytes
+     */
+    public synchronized long getMaxReserved() {
+        return maxReserved;
+    }
+    /**
+     * Returns the total time threads have waited for budget, in milliseconds
+     * @return The cumulated wait time
+     */
+    public synchronized long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HeapBudget{maxBytes="+maxBytes+", maxReserved="+maxReserved+", expansionFactor="+expansionFactor+(learning ? " (learned)" : "")+", waitTime="+getWaitTime()+"ms}";
+    }
+
+}
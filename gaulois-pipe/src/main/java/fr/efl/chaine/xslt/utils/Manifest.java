@@ -0,0 +1,208 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * What an output has been produced from : the input file, the stylesheets and
+ * the parameters. A manifest is written next to each output of an incremental
+ * pipe ; when the manifest of all outputs of an input still matches, the input
+ * does not need to be processed again.
+ * @author cmarchand
+ */
+public class Manifest {
+    /**
+     * The extension added to an output file name to get its manifest file name
+     */
+    public static final String EXTENSION = ".gp-manifest";
+    private static final String INPUT_SIZE = "input.size";
+    private static final String INPUT_LAST_MODIFIED = "input.lastModified";
+    private static final String INPUT_HASH = "input.sha256";
+    private static final String STYLESHEETS_HASH = "stylesheets.sha256";
+    private static final String PARAMETERS_HASH = "parameters.sha256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long inputSize;
+    private final long inputLastModified;
+    private String inputHash;
+    private final String stylesheetsHash;
+    private final String parametersHash;
+
+    /**
+     * Constructs a new manifest. The input hash is computed only when required.
+     * @param inputSize The input file size
+     * @param inputLastModified The input file last modification time
+     * @param inputHash The input content hash, or <tt>null</tt> if not yet computed
+     * @param stylesheetsHash The hash of the stylesheets, including imported ones
+     * @param parametersHash The hash of the parameters
+     */
+    public Manifest(long inputSize, long inputLastModified, String inputHash, String stylesheetsHash, String parametersHash) {
+        super();
+        this.inputSize = inputSize;
+        this.inputLastModified = inputLastModified;
+        this.inputHash = inputHash;
+        this.stylesheetsHash = stylesheetsHash;
+        this.parametersHash = parametersHash;
+    }
+
+    /**
+     * Returns the manifest file of an output file
+     * @param output The output file
+     * @return The manifest file
+     */
+    public static File getManifestFile(File output) {
+        return new File(output.getParentFile(), output.getName()+EXTENSION);
+    }
+
+    /**
+     * Reads the manifest of an output file
+     * @param output The output file
+     * @return The manifest, or <tt>null</tt> if there is no readable manifest
+     */
+    public static Manifest read(File output) {
+        File file = getManifestFile(output);
+        if(!file.isFile()) return null;
+        Properties props = new Properties();
+        try(InputStream is = new FileInputStream(file)) {
+            props.load(is);
+            return new Manifest(
+                    Long.parseLong(props.getProperty(INPUT_SIZE)),
+                    Long.parseLong(props.getProperty(INPUT_LAST_MODIFIED)),
+                    props.getProperty(INPUT_HASH),
+                    props.getProperty(STYLESHEETS_HASH),
+                    props.getProperty(PARAMETERS_HASH));
+        } catch(IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes this manifest next to an output file. The input hash must have been computed.
+     * @param output The output file
+     * @throws IOException If manifest can not be written
+     */
+    public void write(File output) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(INPUT_SIZE, Long.toString(inputSize));
+        props.setProperty(INPUT_LAST_MODIFIED, Long.toString(inputLastModified));
+        props.setProperty(INPUT_HASH, inputHash);
+        props.setProperty(STYLESHEETS_HASH, stylesheetsHash);
+        props.setProperty(PARAMETERS_HASH, parametersHash);
+        try(OutputStream os = new FileOutputStream(getManifestFile(output))) {
+            props.store(os, null);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if <tt>other</tt> describes the same input, stylesheets
+     * and parameters as this manifest. Input content is compared only if input
+     * size or modification time has changed.
+     * @param other The manifest read from an output
+     * @param input The input file, hashed if required
+     * @return <tt>true</tt> if output is up to date
+     * @throws IOException If input can not be read
+     */
+    public boolean matches(Manifest other, File input) throws IOException {
+        if(other==null
+                || !stylesheetsHash.equals(other.stylesheetsHash)
+                || !parametersHash.equals(other.parametersHash)) {
+            return false;
+        }
+        if(inputSize==other.inputSize && inputLastModified==other.inputLastModified) {
+            return true;
+        }
+        return getInputHash(input).equals(other.inputHash);
+    }
+
+    /**
+     * Returns the input hash, computing it on first call
+     * @param input The input file
+     * @return The input hash
+     * @throws IOException If input can not be read
+     */
+    public String getInputHash(File input) throws IOException {
+        if(inputHash==null) {
+            inputHash = hash(input);
+        }
+        return inputHash;
+    }
+
+    /**
+     * Returns the hash of a file content
+     * @param file The file to hash
+     * @return The hash, in hexadecimal
+     * @throws IOException If file can not be read
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try(InputStream is = new FileInputStream(file)) {
+            update(digest, is);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns a new SHA-256 digest
+     * @return The digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException ex) {
+            // SHA-256 is required on every java platform
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Adds all bytes of a stream to a digest
+     * @param digest The digest
+     * @param is The stream
+     * @throws IOException If stream can not be read
+     */
+    public static void update(MessageDigest digest, InputStream is) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while((read=is.read(buffer))>=0) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Returns the hash of a string
+     * @param value The string to hash
+     * @return The hash, in hexadecimal
+     */
+    public static String hash(String value) {
+        return toHex(newDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the hexadecimal form of bytes
+     * @param bytes The bytes
+     * @return The hexadecimal string
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length*2];
+        for(int i=0;i<bytes.length;i++) {
+            chars[2*i] = HEX[(bytes[i]>>4)&0xf];
+            chars[2*i+1] = HEX[bytes[i]&0xf];
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A stable merge sort of lists, whose halves are sorted in parallel.
+ * Small lists are sorted by {@link Collections#sort(java.util.List, java.util.Comparator) }.
+ * @author cmarchand
+ */
+public final class ParallelSort {
+    /**
+     * Under this size, a list is sorted on the calling thread
+     */
+    public static final int THRESHOLD = 8192;
+    private static ForkJoinPool pool;
+
+    private ParallelSort() {
+        super();
+    }
+
+    /**
+     * Sorts <tt>list</tt>. Elements that are equal keep their order.
+     * @param <T> The type of elements
+     * @param list The list to sort
+     * @param comparator The comparator, that must be thread-safe
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void sort(List<T> list, Comparator<? super T> comparator) {
+        if(list.size()<2*THRESHOLD) {
+            Collections.sort(list, comparator);
+            return;
+        }
+        T[] array = (T[])list.toArray();
+        T[] buffer = Arrays.copyOf(array, array.length);
+        getPool().invoke(new SortTask<>(array, buffer, 0, array.length, comparator));
+        ListIterator<T> it = list.listIterator();
+        for(T t: array) {
+            it.next();
+            it.set(t);
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if(pool==null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    private static class SortTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final T[] array;
+        private final T[] buffer;
+        private final int from;
+        private final int to;
+        private final Comparator<? super T> comparator;
+
+        SortTask(T[] array, T[] buffer, int from, int to, Comparator<? super T> comparator) {
+            this.array = array;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if(to-from<=THRESHOLD) {
+                Arrays.sort(array, from, to, comparator);
+                return;
+            }
+            int middle = (from+to) >>> 1;
+            invokeAll(
+                    new SortTask<>(array, buffer, from, middle, comparator),
+                    new SortTask<>(array, buffer, middle, to, comparator));
+            if(comparator.compare(array[middle-1], array[middle])<=0) {
+                // already in order
+                return;
+            }
+            // left element first on ties, sort is stable
+            int left = from, right = middle, i = from;
+            while(left<middle && right<to) {
+                buffer[i++] = comparator.compare(array[left], array[right])<=0 ? array[left++] : array[right++];
+            }
+            while(left<middle) buffer[i++] = array[left++];
+            while(right<to) buffer[i++] = array[right++];
+            System.arraycopy(buffer, from, array, from, to-from);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.ProxyReceiver;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltTransformer;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * A tee whose branches run in parallel.
+ * The received document is built once, as a tree, and when it is complete,
+ * each branch is run on this tree : all branches but the first one are
+ * submitted to the executor, the first one runs in the calling thread.
+ * Then, branches that have not been started yet by the executor are run in
+ * the calling thread too, so a tee never waits for a free thread.
+ * The document is complete when all branches have completed. If branches fail,
+ * the first error is thrown, with the others as suppressed exceptions.
+ * @author cmarchand
+ */
+public class ParallelTeeDestination implements Destination {
+    private final List<Destination> branches;
+    private final List<String> descriptions;
+    private final Processor processor;
+    private final Executor executor;
+    private final XdmDestination tree;
+
+    /**
+     * Constructs a new parallel tee
+     * @param branches The start of each branch
+     * @param descriptions The description of each branch, used in error messages
+     * @param processor The processor, used to send tree to branches that are not transformers
+     * @param executor The executor branches are submitted to
+     */
+    public ParallelTeeDestination(List<Destination> branches, List<String> descriptions, Processor processor, Executor executor) {
+        super();
+        this.branches = branches;
+        this.descriptions = descriptions;
+        this.processor = processor;
+        this.executor = executor;
+        tree = new XdmDestination();
+    }
+
+    @Override
+    public Receiver getReceiver(Configuration c) throws SaxonApiException {
+        return new ProxyReceiver(tree.getReceiver(c)) {
+            @Override
+            public void close() throws XPathException {
+                super.close();
+                try {
+                    runBranches(tree.getXdmNode());
+                } catch(SaxonApiException ex) {
+                    throw new XPathException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws SaxonApiException {
+        tree.close();
+    }
+
+    private void runBranches(XdmNode document) throws SaxonApiException {
+        List<FutureTask<Void>> tasks = new ArrayList<>(branches.size());
+        for(Destination branch: branches) {
+            tasks.add(new FutureTask<>(newBranchRunner(branch, document)));
+        }
+        for(int i=1;i<tasks.size();i++) {
+            executor.execute(tasks.get(i));
+        }
+        SaxonApiException error = null;
+        for(int i=0;i<tasks.size();i++) {
+            FutureTask<Void> task = tasks.get(i);
+            // does nothing if task has already been started by executor
+            task.run();
+            try {
+                task.get();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SaxonApiException("interrupted while waiting for tee branches", ex);
+            } catch(ExecutionException ex) {
+                SaxonApiException branchError = new SaxonApiException("in tee branch "+descriptions.get(i)+": "+ex.getCause().getMessage(), ex.getCause());
+                if(error==null) {
+                    error = branchError;
+                } else {
+                    error.addSuppressed(branchError);
+                }
+            }
+        }
+        if(error!=null) {
+            throw error;
+        }
+    }
+
+    private Callable<Void> newBranchRunner(final Destination branch, final XdmNode document) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if(branch instanceof XsltTransformer) {
+                    // no need to copy the tree
+                    XsltTransformer transformer = (XsltTransformer)branch;
+                    transformer.setInitialContextNode(document);
+                    transformer.transform();
+                } else {
+                    processor.writeXdmValue(document, branch);
+                }
+                return null;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmAtomicValue;
+
+/**
+ * A string where <tt>$[name]</tt> placeholders are replaced by parameter values.
+ * The string is parsed once, in literal parts and placeholders ; rendering
+ * looks each placeholder up in parameters, and appends to a StringBuilder.
+ * A placeholder whose parameter is unknown is kept as is. If a parameter value
+ * contains placeholders itself, they are replaced too.
+ * Templates are immutable, and may be shared between threads.
+ * @author cmarchand
+ */
+public final class ParameterTemplate {
+    private static final String START = "$[";
+    private static final int MAX_DEPTH = 8;
+    private static final int MAX_CACHED = 4096;
+    private static final ConcurrentHashMap<String,ParameterTemplate> CACHE = new ConcurrentHashMap<>();
+
+    private final String template;
+    /**
+     * Literal parts, one more than placeholders
+     */
+    private final String[] literals;
+    /**
+     * Placeholder names, as written in template
+     */
+    private final String[] names;
+    /**
+     * Placeholder names, as QNames without namespace, or <tt>null</tt> if name is prefixed
+     */
+    private final QName[] qnames;
+
+    private ParameterTemplate(String template) {
+        super();
+        this.template = template;
+        List<String> lits = new ArrayList<>();
+        List<String> ns = new ArrayList<>();
+        int from = 0;
+        int start = template.indexOf(START);
+        while(start>=0) {
+            int end = template.indexOf(']', start+2);
+            if(end<0) break;
+            lits.add(template.substring(from, start));
+            ns.add(template.substring(start+2, end));
+            from = end+1;
+            start = template.indexOf(START, from);
+        }
+        lits.add(template.substring(from));
+        literals = lits.toArray(new String[lits.size()]);
+        names = ns.toArray(new String[ns.size()]);
+        qnames = new QName[names.length];
+        for(int i=0;i<names.length;i++) {
+            String name = names[i];
+            if(name.indexOf(':')<0 && name.indexOf('{')<0 && !name.isEmpty()) {
+                qnames[i] = new QName(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the template of <tt>template</tt>. Templates are cached, so a
+     * string is parsed only once.
+     * @param template The string to parse
+     * @return The template
+     */
+    public static ParameterTemplate compile(String template) {
+        ParameterTemplate ret = CACHE.get(template);
+        if(ret==null) {
+            ret = new ParameterTemplate(template);
+            if(CACHE.size()<MAX_CACHED) {
+                CACHE.putIfAbsent(template, ret);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this template has no placeholder
+     * @return <tt>true</tt> if rendering always returns the template
+     */
+    public boolean isConstant() {
+        return names.length==0;
+    }
+
+    /**
+     * Returns the string this template has been parsed from
+     * @return The template string
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Replaces placeholders by the value of parameters with the same name.
+     * Only String and atomic values are used.
+     * @param parameters The parameters
+     * @return The rendered string
+     */
+    public String render(Map<QName,ParameterValue> parameters) {
+        return render(parameters, true);
+    }
+
+    /**
+     * Replaces placeholders by the value of parameters with the same name.
+     * @param parameters The parameters
+     * @param atomicValues If atomic values are used ; if not, only String values are
+     * @return The rendered string
+     */
+    public String render(Map<QName,ParameterValue> parameters, boolean atomicValues) {
+        String ret = template;
+        ParameterTemplate current = this;
+        for(int depth=0;depth<MAX_DEPTH && !current.isConstant();depth++) {
+            String rendered = current.renderOnce(parameters, atomicValues);
+            boolean changed = !rendered.equals(ret);
+            ret = rendered;
+            if(!changed || ret.indexOf(START)<0) break;
+            // a value has brought placeholders
+            current = new ParameterTemplate(ret);
+        }
+        return ret;
+    }
+
+    private String renderOnce(Map<QName,ParameterValue> parameters, boolean atomicValues) {
+        StringBuilder sb = new StringBuilder(template.length()+32*names.length);
+        sb.append(literals[0]);
+        for(int i=0;i<names.length;i++) {
+            Object value = getValue(parameters, i, atomicValues);
+            if(value==null) {
+                sb.append(START).append(names[i]).append(']');
+            } else {
+                sb.append(value.toString());
+            }
+            sb.append(literals[i+1]);
+        }
+        return sb.toString();
+    }
+
+    private Object getValue(Map<QName,ParameterValue> parameters, int index, boolean atomicValues) {
+        ParameterValue pv = qnames[index]==null ? null : parameters.get(qnames[index]);
+        if(pv==null) {
+            // a namespace or a prefix : parameters are named by their display name
+            for(ParameterValue p: parameters.values()) {
+                if(names[index].equals(p.getKey().toString())) {
+                    pv = p;
+                    break;
+                }
+            }
+        }
+        if(pv==null) return null;
+        Object value = pv.getValue();
+        if(value instanceof String || (atomicValues && value instanceof XdmAtomicValue)) {
+            return value;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+}
@@ -10,9 +10,7 @@ import fr.efl.chaine.xslt.GauloisPipe;
 import fr.efl.chaine.xslt.config.Config;
 import java.io.File;
 import java.util.HashMap;
-import java.util.regex.Matcher;
 import net.sf.saxon.s9api.QName;
-import net.sf.saxon.s9api.XdmAtomicValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import top.marchand.xml.gaulois.config.typing.DatatypeFactory;
@@ -66,18 +64,7 @@ public class ParametersMerger {
         if(initialValue instanceof String) {
             String ret = initialValue.toString();
             if(ret.contains("$[")) {
-                for(ParameterValue pv: parameters.values()) {
-                    if(pv.getValue() instanceof String) {
-                        try {
-                            // issue #14
-                            ret = ret.replaceAll("\\$\\["+pv.getKey()+"\\]", Matcher.quoteReplacement(pv.getValue().toString()));
-                        } catch(java.lang.IllegalArgumentException ex) {
-                            LOGGER.error("while replacing "+pv.getKey()+" -> "+pv.getValue(),ex);
-                            throw ex;
-                        }
-                    }
-                    if(!ret.contains("$[")) break;
-                }
+                ret = ParameterTemplate.compile(ret).render(parameters, false);
             }
             return ret;
         } else {
@@ -91,25 +78,10 @@ public class ParametersMerger {
      * @return The initialValue with all parameters replaced
      */
     public static String processParametersReplacement(String initialValue, final HashMap<QName,ParameterValue> parameters) {
-        String ret = initialValue;
-        if(ret.contains("$[")) {
-            for(ParameterValue pv: parameters.values()) {
-                if(pv.getValue() instanceof String) {
-                    try {
-                        // issue #14
-                        ret = ret.replaceAll("\\$\\["+pv.getKey()+"\\]", Matcher.quoteReplacement(pv.getValue().toString()));
-                    } catch(java.lang.IllegalArgumentException ex) {
-                        LOGGER.error("while replacing "+pv.getKey()+" -> "+pv.getValue(),ex);
-                        throw ex;
-                    }
-                } else if(pv.getValue() instanceof XdmAtomicValue) {
-                    String replacer = Matcher.quoteReplacement(((XdmAtomicValue)pv.getValue()).toString());
-                    ret = ret.replaceAll("\\$\\["+pv.getKey()+"\\]", replacer);
-                }
-                if(!ret.contains("$[")) break;
-            }
+        if(initialValue.contains("$[")) {
+            return ParameterTemplate.compile(initialValue).render(parameters, true);
         }
-        return ret;
+        return initialValue;
     }
     
     /**
@@ -18,6 +18,8 @@ public class ParametrableFile {
     private final HashMap<QName,ParameterValue> parameters;
     private final File file;
     private boolean avoidCache;
+    private String splitOn;
+    private int splitSize;
     
     public ParametrableFile(final File file) {
         super();
@@ -57,4 +59,23 @@ public class ParametrableFile {
     public boolean getAvoidCache() {
         return avoidCache;
     }
+    /**
+     * Declares this file as a sequence of records, to process by chunks.
+     * @param splitOn The record element name, or <tt>null</tt> if file must not be split
+     * @param splitSize The number of records per chunk
+     */
+    public void setSplit(String splitOn, int splitSize) {
+        this.splitOn = splitOn;
+        this.splitSize = splitSize;
+    }
+    /**
+     * Returns the record element name, if file is split
+     * @return The record element name, or <tt>null</tt>
+     */
+    public String getSplitOn() {
+        return splitOn;
+    }
+    public int getSplitSize() {
+        return splitSize;
+    }
 }
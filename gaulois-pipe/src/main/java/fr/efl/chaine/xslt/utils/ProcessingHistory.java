@@ -0,0 +1,193 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The processing durations of inputs in previous runs, stored in a local file.
+ * Each input is identified by its path, its size, its modification time and
+ * its content hash ; the content is hashed only when an input has been touched
+ * but has the same size. Durations of inputs without history are estimated
+ * from their size, with the average duration per byte of known inputs.
+ * The file has one line per input : <tt>size, lastModified, sha256, duration (ms), path</tt>, tab separated.
+ * @author cmarchand
+ */
+public class ProcessingHistory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessingHistory.class);
+    private final File file;
+    private final ConcurrentHashMap<String,Entry> entries;
+    /**
+     * Average duration per byte, -1 until computed
+     */
+    private volatile double rate = -1d;
+
+    /**
+     * Constructs a new history, and loads <tt>file</tt> if it exists
+     * @param file The history file
+     */
+    public ProcessingHistory(File file) {
+        super();
+        this.file = file;
+        entries = new ConcurrentHashMap<>();
+        load();
+    }
+
+    private void load() {
+        if(!file.isFile()) return;
+        try(BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while((line=reader.readLine())!=null) {
+                String[] fields = line.split("\t", 5);
+                if(fields.length<5) continue;
+                try {
+                    entries.put(fields[4], new Entry(
+                            Long.parseLong(fields[0]),
+                            Long.parseLong(fields[1]),
+                            fields[2],
+                            Long.parseLong(fields[3])));
+                } catch(NumberFormatException ex) {
+                    LOGGER.debug("ignoring history line "+line);
+                }
+            }
+        } catch(IOException ex) {
+            LOGGER.warn("unable to read history "+file.getAbsolutePath()+", inputs are ordered by size", ex);
+        }
+    }
+
+    /**
+     * Returns the predicted processing duration of an input
+     * @param input The input file
+     * @param length The input size
+     * @param lastModified The input modification time
+     * @return The duration of the previous run on same content, in milliseconds,
+     * or an estimation from input size
+     */
+    public long predict(File input, long length, long lastModified) {
+        Entry entry = entries.get(input.getAbsolutePath());
+        if(entry!=null && entry.size==length) {
+            if(entry.lastModified==lastModified) {
+                return entry.duration;
+            }
+            try {
+                if(entry.hash.equals(Manifest.hash(input))) {
+                    return entry.duration;
+                }
+            } catch(IOException ex) {
+                // estimated
+            }
+        }
+        return estimate(length);
+    }
+
+    /**
+     * Estimates the duration of an input without history, from its size
+     */
+    private long estimate(long length) {
+        double r = rate;
+        if(r<0d) {
+            long bytes = 0L, duration = 0L;
+            for(Entry entry: entries.values()) {
+                bytes += entry.size;
+                duration += entry.duration;
+            }
+            // without history, inputs are ordered by size
+            r = (bytes==0L || duration==0L) ? 0d : (double)duration/bytes;
+            rate = r;
+        }
+        return r==0d ? length : (long)(r*length);
+    }
+
+    /**
+     * Records the processing duration of an input. If the same content has
+     * already been recorded, the average of both durations is kept. The input
+     * is hashed only if its size or its modification time has changed.
+     * @param input The input file
+     * @param duration The processing duration, in milliseconds
+     */
+    public void record(File input, long duration) {
+        String path = input.getAbsolutePath();
+        long length = input.length();
+        long lastModified = input.lastModified();
+        Entry previous = entries.get(path);
+        String hash;
+        if(previous!=null && previous.size==length && previous.lastModified==lastModified) {
+            hash = previous.hash;
+        } else {
+            try {
+                hash = Manifest.hash(input);
+            } catch(IOException ex) {
+                LOGGER.debug("unable to hash "+path+", duration not recorded");
+                return;
+            }
+        }
+        if(previous!=null && previous.hash.equals(hash)) {
+            duration = (previous.duration+duration)/2;
+        }
+        entries.put(path, new Entry(length, lastModified, hash, duration));
+        rate = -1d;
+    }
+
+    /**
+     * Writes the history file. It is written next to its final location, then renamed.
+     * @throws IOException If history can not be written
+     */
+    public void save() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("unable to create "+parent.getAbsolutePath());
+        }
+        File tmp = new File(parent, file.getName()+".tmp");
+        try(Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            for(Map.Entry<String,Entry> e: entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.append(Long.toString(entry.size)).append('\t')
+                        .append(Long.toString(entry.lastModified)).append('\t')
+                        .append(entry.hash).append('\t')
+                        .append(Long.toString(entry.duration)).append('\t')
+                        .append(e.getKey()).append('\n');
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public File getFile() {
+        return file;
+    }
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessingHistory{file="+file.getPath()+", entries="+entries.size()+"}";
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+        private final long duration;
+        Entry(long size, long lastModified, String hash, long duration) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.duration = duration;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.sf.saxon.s9api.BuildingContentHandler;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler that cuts a document made of a sequence of records into
+ * chunks of <tt>splitSize</tt> records. Each chunk is a document whose root
+ * element is a copy of the original root element, with its attributes and
+ * namespaces, and that contains the records of this chunk.
+ * Records are the children of the root element that match <tt>splitOn</tt>.
+ * Other children of the root element are kept in the chunk they appear in.
+ * A document without any record produces one chunk, with an empty root element.
+ * @author cmarchand
+ */
+public class RecordSplitter extends DefaultHandler {
+
+    /**
+     * Receives the chunks, in document order
+     */
+    public interface ChunkHandler {
+        void chunk(XdmNode chunk) throws SAXException;
+    }
+
+    private final DocumentBuilder builder;
+    private final String recordNamespace;
+    private final String recordLocalName;
+    private final int splitSize;
+    private final ChunkHandler handler;
+    private BuildingContentHandler chunk;
+    private int depth = 0;
+    private int recordsInChunk = 0;
+    private boolean inRecord = false;
+    private int chunks = 0;
+    private long records = 0L;
+    private String rootUri, rootLocalName, rootQName;
+    private Attributes rootAttributes;
+    private final List<String[]> rootMappings = new ArrayList<>();
+    private final List<String[]> pendingMappings = new ArrayList<>();
+
+    /**
+     * Constructs a new splitter
+     * @param builder The builder used to build chunks
+     * @param splitOn The record element name : a local name, that matches
+     * elements in any namespace, or <tt>{namespace-uri}local-name</tt>
+     * @param splitSize The number of records per chunk
+     * @param handler The handler that receives chunks
+     */
+    public RecordSplitter(DocumentBuilder builder, String splitOn, int splitSize, ChunkHandler handler) {
+        super();
+        if(splitSize<1) throw new IllegalArgumentException("splitSize must be at least 1");
+        this.builder = builder;
+        if(splitOn.startsWith("{")) {
+            int index = splitOn.indexOf('}');
+            recordNamespace = splitOn.substring(1, index);
+            recordLocalName = splitOn.substring(index+1);
+        } else {
+            recordNamespace = null;
+            recordLocalName = splitOn;
+        }
+        this.splitSize = splitSize;
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the number of chunks produced
+     * @return The number of chunks
+     */
+    public int getChunkCount() {
+        return chunks;
+    }
+
+    /**
+     * Returns the number of records found
+     * @return The number of records
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        pendingMappings.add(new String[] {prefix, uri});
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        // root's mappings are closed when chunk is closed
+        if(chunk!=null && depth>0) {
+            chunk.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if(depth==0) {
+            rootUri = uri;
+            rootLocalName = localName;
+            rootQName = qName;
+            rootAttributes = new AttributesImpl(atts);
+            rootMappings.addAll(pendingMappings);
+            pendingMappings.clear();
+            depth++;
+            return;
+        }
+        if(chunk==null) {
+            openChunk();
+        }
+        if(depth==1 && isRecord(uri, localName)) {
+            inRecord = true;
+        }
+        for(String[] mapping: pendingMappings) {
+            chunk.startPrefixMapping(mapping[0], mapping[1]);
+        }
+        pendingMappings.clear();
+        chunk.startElement(uri, localName, qName, atts);
+        depth++;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        depth--;
+        if(depth==0) {
+            // root element
+            if(chunk==null && chunks==0) {
+                openChunk();
+            }
+            if(chunk!=null) {
+                closeChunk();
+            }
+            return;
+        }
+        chunk.endElement(uri, localName, qName);
+        if(depth==1 && inRecord) {
+            inRecord = false;
+            recordsInChunk++;
+            records++;
+            if(recordsInChunk>=splitSize) {
+                closeChunk();
+            }
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if(chunk!=null && depth>0) {
+            chunk.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        if(chunk!=null && depth>0) {
+            chunk.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        if(chunk!=null && depth>0) {
+            chunk.processingInstruction(target, data);
+        }
+    }
+
+    private boolean isRecord(String uri, String localName) {
+        return recordLocalName.equals(localName) && (recordNamespace==null || recordNamespace.equals(uri));
+    }
+
+    private void openChunk() throws SAXException {
+        try {
+            chunk = builder.newBuildingContentHandler();
+        } catch(SaxonApiException ex) {
+            throw new SAXException(ex);
+        }
+        chunk.startDocument();
+        for(String[] mapping: rootMappings) {
+            chunk.startPrefixMapping(mapping[0], mapping[1]);
+        }
+        chunk.startElement(rootUri, rootLocalName, rootQName, rootAttributes);
+        recordsInChunk = 0;
+    }
+
+    private void closeChunk() throws SAXException {
+        chunk.endElement(rootUri, rootLocalName, rootQName);
+        for(String[] mapping: rootMappings) {
+            chunk.endPrefixMapping(mapping[0]);
+        }
+        chunk.endDocument();
+        XdmNode document;
+        try {
+            document = chunk.getDocumentNode();
+        } catch(SaxonApiException ex) {
+            throw new SAXException(ex);
+        }
+        chunk = null;
+        chunks++;
+        handler.chunk(document);
+    }
+
+}
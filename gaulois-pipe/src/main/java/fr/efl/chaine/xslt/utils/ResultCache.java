@@ -0,0 +1,234 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A directory that stores the outputs produced from an input, keyed by a hash
+ * of the input content, of the parameters and of the pipe. When the same
+ * content is processed again, under another path, its outputs are copied from
+ * the store instead of being computed.
+ * Each entry is a sub-directory that contains one file per output, in outputs order.
+ * When the store is over its max size, least recently used entries are deleted.
+ * Entries are written in a temporary directory, then renamed, so a store is
+ * never read while it is written.
+ * @author cmarchand
+ */
+public class ResultCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultCache.class);
+    private static final String TMP_PREFIX = ".tmp-";
+    private final File directory;
+    private final long maxBytes;
+    /**
+     * Entries weights, in access order
+     */
+    private final LinkedHashMap<String,Long> entries;
+    private long weight;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Constructs a new ResultCache, and loads entries already in directory
+     * @param directory The store directory. Created if it does not exist.
+     * @param maxBytes The max size of the store, in bytes. 0 means no limit.
+     * @throws IOException If directory can not be created
+     */
+    public ResultCache(File directory, long maxBytes) throws IOException {
+        super();
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create "+directory.getAbsolutePath());
+        }
+        load();
+    }
+
+    private void load() {
+        File[] dirs = directory.listFiles();
+        if(dirs==null) return;
+        // oldest first, they will be evicted first
+        Arrays.sort(dirs, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for(File dir: dirs) {
+            if(!dir.isDirectory()) continue;
+            if(dir.getName().startsWith(TMP_PREFIX)) {
+                // left by an interrupted run
+                delete(dir);
+                continue;
+            }
+            long size = sizeOf(dir);
+            entries.put(dir.getName(), size);
+            weight += size;
+        }
+    }
+
+    /**
+     * Copies the outputs stored under <tt>key</tt> to <tt>destinations</tt>.
+     * @param key The entry key
+     * @param destinations The output files, in outputs order
+     * @return <tt>true</tt> if the entry exists and has been copied
+     * @throws IOException If copy fails
+     */
+    public boolean restore(String key, List<File> destinations) throws IOException {
+        File entry = new File(directory, key);
+        synchronized(this) {
+            if(entries.get(key)==null) {
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+        File[] stored = new File[destinations.size()];
+        for(int i=0;i<stored.length;i++) {
+            stored[i] = new File(entry, Integer.toString(i));
+            if(!stored[i].isFile()) {
+                // evicted meanwhile, or not the same outputs
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+        try {
+            for(int i=0;i<stored.length;i++) {
+                File destination = destinations.get(i);
+                if(destination.getParentFile()!=null) {
+                    destination.getParentFile().mkdirs();
+                }
+                Files.copy(stored[i].toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(NoSuchFileException ex) {
+            // evicted while copied
+            misses.incrementAndGet();
+            return false;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stores outputs under <tt>key</tt>, then evicts least recently used entries
+     * if store is over its max size. Does nothing if <tt>key</tt> is already stored.
+     * @param key The entry key
+     * @param outputs The output files, in outputs order
+     * @throws IOException If outputs can not be stored
+     */
+    public void store(String key, List<File> outputs) throws IOException {
+        synchronized(this) {
+            if(entries.containsKey(key)) return;
+        }
+        long size = 0L;
+        for(File output: outputs) {
+            size += output.length();
+        }
+        if(maxBytes>0 && size>maxBytes) return;
+        File tmp = new File(directory, TMP_PREFIX+UUID.randomUUID().toString());
+        if(!tmp.mkdir()) {
+            throw new IOException("unable to create "+tmp.getAbsolutePath());
+        }
+        try {
+            for(int i=0;i<outputs.size();i++) {
+                Files.copy(outputs.get(i).toPath(), new File(tmp, Integer.toString(i)).toPath());
+            }
+        } catch(IOException ex) {
+            delete(tmp);
+            throw ex;
+        }
+        List<File> evicted = new ArrayList<>();
+        synchronized(this) {
+            File entry = new File(directory, key);
+            if(entries.containsKey(key) || !tmp.renameTo(entry)) {
+                // stored by another thread meanwhile
+                evicted.add(tmp);
+            } else {
+                entries.put(key, size);
+                weight += size;
+                Iterator<Map.Entry<String,Long>> it = entries.entrySet().iterator();
+                while(maxBytes>0 && weight>maxBytes && it.hasNext()) {
+                    Map.Entry<String,Long> eldest = it.next();
+                    if(eldest.getKey().equals(key)) continue;
+                    weight -= eldest.getValue();
+                    it.remove();
+                    evictions.incrementAndGet();
+                    evicted.add(new File(directory, eldest.getKey()));
+                }
+            }
+        }
+        // deletes out of lock
+        for(File dir: evicted) {
+            delete(dir);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+    public long getMisses() {
+        return misses.get();
+    }
+    public long getEvictions() {
+        return evictions.get();
+    }
+    public synchronized long getWeight() {
+        return weight;
+    }
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache{directory="+directory.getPath()+", entries="+entries.size()+", weight="+weight+", maxBytes="+maxBytes+", hits="+hits.get()+", misses="+misses.get()+", evictions="+evictions.get()+"}";
+    }
+
+    private static long sizeOf(File dir) {
+        long size = 0L;
+        File[] files = dir.listFiles();
+        if(files!=null) {
+            for(File f: files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if(files!=null) {
+            for(File f: files) {
+                f.delete();
+            }
+        }
+        if(!dir.delete()) {
+            LOGGER.warn("unable to delete "+dir.getAbsolutePath());
+        }
+    }
+
+}
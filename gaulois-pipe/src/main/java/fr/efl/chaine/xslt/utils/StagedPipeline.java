@@ -0,0 +1,203 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a sequence of stages, each one on its own thread.
+ * Each stage receives the tree produced by the previous one, through a bounded
+ * queue, so while a stage works on a document, the previous stage may
+ * already work on the next document.
+ * @author cmarchand
+ * @param <C> The type of the context each document is processed with
+ */
+public class StagedPipeline<C> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StagedPipeline.class);
+
+    /**
+     * A stage of the pipeline
+     * @param <C> The type of the context each document is processed with
+     */
+    public interface Stage<C> {
+        /**
+         * Processes a document
+         * @param context The context of the document
+         * @param input The tree produced by the previous stage, or the source document for the first stage
+         * @return The tree to give to next stage. Last stage may return <tt>null</tt>
+         * @throws Exception If processing fails
+         */
+        XdmNode process(C context, XdmNode input) throws Exception;
+    }
+
+    private final List<Stage<C>> stages;
+    private final List<BlockingQueue<Job<C>>> queues;
+    private final List<Thread> threads;
+    /**
+     * Jobs submitted and not completed yet, failed on shutdown
+     */
+    private final Set<Job<C>> jobs;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructs and starts a pipeline
+     * @param stages The stages, in order
+     * @param queueSize The number of documents that may wait before each stage
+     * @param threadFactory The thread factory to use
+     */
+    public StagedPipeline(List<Stage<C>> stages, int queueSize, ThreadFactory threadFactory) {
+        super();
+        if(stages.isEmpty()) throw new IllegalArgumentException("at least one stage is required");
+        this.stages = new ArrayList<>(stages);
+        queues = new ArrayList<>(stages.size());
+        threads = new ArrayList<>(stages.size());
+        jobs = Collections.newSetFromMap(new ConcurrentHashMap<Job<C>,Boolean>());
+        for(int i=0;i<stages.size();i++) {
+            queues.add(new ArrayBlockingQueue<Job<C>>(Math.max(1, queueSize)));
+        }
+        for(int i=0;i<stages.size();i++) {
+            Thread thread = threadFactory.newThread(newStageRunner(i));
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Processes a document through all stages, and waits for it to be completed.
+     * @param context The context of the document
+     * @param source The source document
+     * @return The tree returned by the last stage
+     * @throws SaxonApiException If a stage fails, or if pipeline is shut down
+     * @throws IOException If a stage fails on an I/O error
+     */
+    public XdmNode run(C context, XdmNode source) throws SaxonApiException, IOException {
+        Job<C> job = new Job<>(context, source);
+        // registered before shutdown is checked : either shutdown fails it, or it is not submitted
+        jobs.add(job);
+        try {
+            if(shutdown) {
+                throw new SaxonApiException("pipeline has been shut down");
+            }
+            BlockingQueue<Job<C>> first = queues.get(0);
+            while(!first.offer(job, 1, TimeUnit.SECONDS)) {
+                if(shutdown) break;
+            }
+            job.done.await();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SaxonApiException("interrupted while waiting for pipeline", ex);
+        } finally {
+            jobs.remove(job);
+        }
+        Throwable error = job.error;
+        if(error==null) {
+            return job.tree;
+        } else if(error instanceof SaxonApiException) {
+            throw (SaxonApiException)error;
+        } else if(error instanceof IOException) {
+            throw (IOException)error;
+        } else if(error instanceof RuntimeException) {
+            throw (RuntimeException)error;
+        } else if(error instanceof Error) {
+            throw (Error)error;
+        }
+        throw new SaxonApiException(error);
+    }
+
+    /**
+     * Stops stage threads. Documents not yet completed fail, so callers
+     * waiting for them are released.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for(Thread thread: threads) {
+            thread.interrupt();
+        }
+        for(BlockingQueue<Job<C>> queue: queues) {
+            queue.clear();
+        }
+        SaxonApiException error = new SaxonApiException("pipeline has been shut down");
+        for(Job<C> job: jobs) {
+            job.complete(null, error);
+        }
+    }
+
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    private Runnable newStageRunner(final int index) {
+        final Stage<C> stage = stages.get(index);
+        final BlockingQueue<Job<C>> input = queues.get(index);
+        final BlockingQueue<Job<C>> output = index+1<queues.size() ? queues.get(index+1) : null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(!shutdown) {
+                        Job<C> job = input.take();
+                        XdmNode tree;
+                        try {
+                            tree = stage.process(job.context, job.tree);
+                        } catch(Throwable t) {
+                            job.complete(null, t);
+                            continue;
+                        }
+                        if(output==null) {
+                            job.complete(tree, null);
+                        } else {
+                            job.tree = tree;
+                            output.put(job);
+                        }
+                    }
+                } catch(InterruptedException ex) {
+                    LOGGER.debug("stage "+index+" stopped");
+                }
+            }
+        };
+    }
+
+    private static class Job<C> {
+        private final C context;
+        private final CountDownLatch done;
+        private final AtomicBoolean completed;
+        private volatile XdmNode tree;
+        private volatile Throwable error;
+        Job(C context, XdmNode source) {
+            this.context = context;
+            this.tree = source;
+            this.done = new CountDownLatch(1);
+            this.completed = new AtomicBoolean();
+        }
+        /**
+         * Completes this job, with its result or its error. Only the first call is kept.
+         */
+        void complete(XdmNode result, Throwable error) {
+            if(completed.compareAndSet(false, true)) {
+                this.tree = result;
+                this.error = error;
+                done.countDown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Computes the hash of a stylesheet and of all the modules it imports or
+ * includes, recursively. Modules are located with the same URIResolver the
+ * XSL compiler uses. Hashes are cached, so each stylesheet is read only once.
+ * @author cmarchand
+ */
+public class StylesheetDigester {
+    private static final String XSL_NS = "http://www.w3.org/1999/XSL/Transform";
+    private final URIResolver resolver;
+    private final String base;
+    private final SAXParserFactory parserFactory;
+    private final ConcurrentHashMap<String,String> digests;
+
+    /**
+     * Constructs a new digester
+     * @param resolver The resolver used to locate stylesheets
+     * @param base The base URI top-level hrefs are resolved against
+     */
+    public StylesheetDigester(URIResolver resolver, String base) {
+        super();
+        this.resolver = resolver;
+        this.base = base;
+        parserFactory = SAXParserFactory.newInstance();
+        parserFactory.setNamespaceAware(true);
+        digests = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the hash of a stylesheet and of all its modules
+     * @param href The stylesheet href, as given to the XSL compiler
+     * @return The hash, in hexadecimal
+     * @throws IOException If a module can not be resolved or read
+     */
+    public String digest(String href) throws IOException {
+        String ret = digests.get(href);
+        if(ret==null) {
+            MessageDigest digest = Manifest.newDigest();
+            update(digest, href, base, new HashSet<String>());
+            ret = Manifest.toHex(digest.digest());
+            digests.putIfAbsent(href, ret);
+        }
+        return ret;
+    }
+
+    private void update(MessageDigest digest, String href, String baseUri, Set<String> visited) throws IOException {
+        Source source;
+        try {
+            source = resolver.resolve(href, baseUri);
+        } catch(TransformerException ex) {
+            throw new IOException("unable to resolve "+href, ex);
+        }
+        if(source==null) {
+            throw new IOException("unable to resolve "+href);
+        }
+        String systemId = source.getSystemId();
+        if(systemId!=null && !visited.add(systemId)) {
+            // already hashed, import cycles are possible
+            return;
+        }
+        byte[] content = read(source);
+        digest.update((systemId==null ? href : systemId).getBytes(StandardCharsets.UTF_8));
+        digest.update(content);
+        for(String module: getModules(content, systemId)) {
+            update(digest, module, systemId, visited);
+        }
+    }
+
+    /**
+     * Returns the hrefs of xsl:import and xsl:include of a stylesheet
+     */
+    private List<String> getModules(byte[] content, String systemId) throws IOException {
+        final List<String> modules = new ArrayList<>();
+        InputSource is = new InputSource(new ByteArrayInputStream(content));
+        is.setSystemId(systemId);
+        try {
+            parserFactory.newSAXParser().parse(is, new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes atts) {
+                    if(XSL_NS.equals(uri) && ("import".equals(localName) || "include".equals(localName))) {
+                        String href = atts.getValue("href");
+                        if(href!=null) {
+                            modules.add(href);
+                        }
+                    }
+                }
+                @Override
+                public InputSource resolveEntity(String publicId, String sId) {
+                    // DTDs are not modules
+                    return new InputSource(new ByteArrayInputStream(new byte[0]));
+                }
+            });
+        } catch(ParserConfigurationException | SAXException ex) {
+            throw new IOException("unable to parse "+systemId, ex);
+        }
+        return modules;
+    }
+
+    private static byte[] read(Source source) throws IOException {
+        InputStream is = null;
+        Reader reader = null;
+        if(source instanceof StreamSource) {
+            is = ((StreamSource)source).getInputStream();
+            reader = ((StreamSource)source).getReader();
+        } else if(source instanceof SAXSource && ((SAXSource)source).getInputSource()!=null) {
+            is = ((SAXSource)source).getInputSource().getByteStream();
+            reader = ((SAXSource)source).getInputSource().getCharacterStream();
+        }
+        if(is==null && reader!=null) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            try {
+                while((read=reader.read(buffer))>=0) {
+                    sb.append(buffer, 0, read);
+                }
+            } finally {
+                reader.close();
+            }
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        if(is==null) {
+            is = new URL(source.getSystemId()).openStream();
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read=is.read(buffer))>=0) {
+                baos.write(buffer, 0, read);
+            }
+            return baos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+}
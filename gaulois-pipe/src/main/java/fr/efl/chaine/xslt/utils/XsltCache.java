@@ -0,0 +1,136 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.saxon.s9api.SaxonApiException;
+
+/**
+ * A thread-safe cache of compiled XSLs.
+ * Compiled XSLs are kept with the system id they have been resolved to, so
+ * a cache hit does not require any I/O.
+ * Each href is compiled only once : if many threads ask for the same href
+ * while it is compiled, they all wait for the same compilation.
+ * If a compilation fails, the entry is removed, so a later call will retry.
+ * @author cmarchand
+ */
+public class XsltCache {
+    private final ConcurrentMap<String,Future<CompiledXsl>> cache;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong compileTime;
+
+    public XsltCache() {
+        super();
+        cache = new ConcurrentHashMap<>();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        compileTime = new AtomicLong();
+    }
+
+    /**
+     * Returns the compiled XSL for <tt>href</tt>. If it is not yet in cache,
+     * <tt>compiler</tt> is called to compile it, in the calling thread.
+     * @param href The (substituted) href of the XSL, used as cache key
+     * @param compiler The compiler to call if <tt>href</tt> is not in cache
+     * @return The compiled XSL
+     * @throws SaxonApiException If compilation fails
+     * @throws IOException If XSL can not be read
+     */
+    public CompiledXsl get(final String href, final Callable<CompiledXsl> compiler) throws SaxonApiException, IOException {
+        Future<CompiledXsl> future = cache.get(href);
+        if(future==null) {
+            FutureTask<CompiledXsl> task = new FutureTask<>(new Callable<CompiledXsl>() {
+                @Override
+                public CompiledXsl call() throws Exception {
+                    long start = System.nanoTime();
+                    try {
+                        return compiler.call();
+                    } finally {
+                        compileTime.addAndGet(System.nanoTime()-start);
+                    }
+                }
+            });
+            future = cache.putIfAbsent(href, task);
+            if(future==null) {
+                misses.incrementAndGet();
+                future = task;
+                task.run();
+            } else {
+                hits.incrementAndGet();
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        try {
+            return future.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SaxonApiException("interrupted while waiting for "+href+" compilation", ex);
+        } catch(ExecutionException ex) {
+            cache.remove(href, future);
+            Throwable cause = ex.getCause();
+            if(cause instanceof SaxonApiException) {
+                throw (SaxonApiException)cause;
+            } else if(cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new SaxonApiException(cause);
+        }
+    }
+
+    /**
+     * Returns the number of entries in cache, including the ones actually compiled
+     * @return The cache size
+     */
+    public int size() {
+        return cache.size();
+    }
+    public boolean isEmpty() {
+        return cache.isEmpty();
+    }
+    /**
+     * Returns the number of calls that have not required a compilation
+     * @return Cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    /**
+     * Returns the number of compilations performed
+     * @return Cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    /**
+     * Returns the total time spent in compilation, in milliseconds.
+     * As compilations may run in parallel, it may be greater than elapsed time.
+     * @return The cumulated compile time
+     */
+    public long getCompileTime() {
+        return TimeUnit.NANOSECONDS.toMillis(compileTime.get());
+    }
+
+    @Override
+    public String toString() {
+        return "XsltCache{size="+size()+", hits="+getHits()+", misses="+getMisses()+", compileTime="+getCompileTime()+"ms}";
+    }
+
+}
@@ -14,19 +14,23 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
 import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.lib.ConversionRules;
 import net.sf.saxon.om.StructuredQName;
-import net.sf.saxon.s9api.DocumentBuilder;
 import net.sf.saxon.s9api.Processor;
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
 import net.sf.saxon.s9api.XPathSelector;
 import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
@@ -44,8 +48,9 @@ public class DatatypeFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger(DatatypeFactory.class);
     public static final String NS_XSD = "http://www.w3.org/2001/XMLSchema";
     public final Datatype XS_STRING;
-    private HashMap<QName,Datatype> constructed = new HashMap<>();
-    private final BuiltInAtomicType[] ATOMIC_TYPES = {
+    private static final String[] OCCURRENCES = { "", "?", "*", "+" };
+    private final ConcurrentHashMap<QName,Datatype> constructed;
+    private static final BuiltInAtomicType[] ATOMIC_TYPES = {
         BuiltInAtomicType.ANY_ATOMIC, BuiltInAtomicType.ANY_URI,
         BuiltInAtomicType.BASE64_BINARY, BuiltInAtomicType.BOOLEAN,
         BuiltInAtomicType.BYTE, BuiltInAtomicType.DATE,
@@ -70,20 +75,53 @@ public class DatatypeFactory {
         BuiltInAtomicType.UNSIGNED_LONG, BuiltInAtomicType.UNSIGNED_SHORT,
         BuiltInAtomicType.UNTYPED_ATOMIC, BuiltInAtomicType.YEAR_MONTH_DURATION
     };
+    /**
+     * Builtin types by name. StructuredQName equality ignores prefix.
+     */
+    private static final Map<StructuredQName,BuiltInAtomicType> ATOMIC_TYPES_BY_NAME;
+    static {
+        Map<StructuredQName,BuiltInAtomicType> map = new HashMap<>();
+        for(BuiltInAtomicType type:ATOMIC_TYPES) {
+            map.put(type.getStructuredQName(), type);
+        }
+        ATOMIC_TYPES_BY_NAME = Collections.unmodifiableMap(map);
+    }
     private final ConversionRules conversionRules;
+    private static final String WRAPPER_NS = "top:marchand:xml:gaulois:wrapper";
+    /**
+     * Parsing state of node datatypes, shared by all conversions
+     */
+    private volatile NodeParser nodeParser;
     
     @SuppressWarnings("OverridableMethodCallInConstructor")
     private DatatypeFactory(ConversionRules conversionRules) throws ValidationException {
         super();
-        this.constructed = new HashMap<>();
+        this.constructed = new ConcurrentHashMap<>();
         this.conversionRules = conversionRules;
+        // all builtin datatypes are constructed once, lookups never construct them
+        for(BuiltInAtomicType type:ATOMIC_TYPES) {
+            String localName = type.getStructuredQName().getLocalPart();
+            for(String occurrence:OCCURRENCES) {
+                QName qn = new QName("xs", NS_XSD, localName.concat(occurrence));
+                constructed.put(qn, constructAtomicDatatype(qn, !occurrence.isEmpty() && !"+".equals(occurrence), "*".equals(occurrence) || "+".equals(occurrence)));
+            }
+        }
         XS_STRING = getDatatype(new QName(NS_XSD,"string"));
     }
+    /**
+     * Returns the datatype named <tt>qn</tt>. May be called concurrently.
+     * @param qn The datatype name, with its occurrence indicator
+     * @return The datatype
+     * @throws ValidationException If <tt>qn</tt> is not a supported datatype
+     */
     public Datatype getDatatype(QName qn) throws ValidationException {
         Datatype ret = constructed.get(qn);
         if(ret==null) {
             ret = constructDatatype(qn);
-            constructed.put(qn, ret);
+            Datatype previous = constructed.putIfAbsent(qn, ret);
+            if(previous!=null) {
+                ret = previous;
+            }
         }
         return ret;
     }
@@ -102,13 +140,7 @@ public class DatatypeFactory {
     private Datatype constructAtomicDatatype(final QName qn, final boolean allowsEmpty, final boolean allowsMultiple) {
         String localName = qn.getLocalName();
         StructuredQName baseType = new StructuredQName(qn.getPrefix(), qn.getNamespaceURI(), (allowsMultiple|allowsEmpty) ? localName.substring(0, localName.length()-1) : localName);
-        BuiltInAtomicType theType = null;
-        for(BuiltInAtomicType type:ATOMIC_TYPES) {
-            if(type.getStructuredQName().equals(baseType)) {
-                theType = type;
-                break;
-            }
-        }
+        BuiltInAtomicType theType = ATOMIC_TYPES_BY_NAME.get(baseType);
         if(theType==null) {
             throw new IllegalArgumentException("Unable to determine datatype of "+qn.getEQName());
         }
@@ -186,15 +218,12 @@ public class DatatypeFactory {
             public boolean allowsEmpty() { return allowsEmpty; }
             @Override
             public XdmValue convert(String input, Configuration configuration) throws ValidationException {
-                Processor proc = new Processor(configuration);
-                DocumentBuilder builder = proc.newDocumentBuilder();
-                String wrappedInput="<fake:document xmlns:fake=\"top:marchand:xml:gaulois:wrapper\">".concat(input).concat("</fake:document>");
-                InputStream is = new ByteArrayInputStream(wrappedInput.getBytes(Charset.forName("UTF-8")));
+                String wrappedInput="<fake:document xmlns:fake=\""+WRAPPER_NS+"\">".concat(input).concat("</fake:document>");
+                InputStream is = new ByteArrayInputStream(wrappedInput.getBytes(StandardCharsets.UTF_8));
                 try {
-                    XdmNode documentNode = builder.build(new StreamSource(is));
-                    XPathCompiler compiler = proc.newXPathCompiler();
-                    compiler.declareNamespace("fake", "top:marchand:xml:gaulois:wrapper");
-                    XPathSelector selector = compiler.compile("/fake:document/node()").load();
+                    NodeParser parser = getNodeParser(configuration);
+                    XdmNode documentNode = parser.processor.newDocumentBuilder().build(new StreamSource(is));
+                    XPathSelector selector = parser.children.load();
                     selector.setContextItem(documentNode);
                     XdmValue ret = selector.evaluate();
                     if(ret.size()==0 && !allowsEmpty()) throw new ValidationException(qn.toString()+" does not allow empty sequence", new Exception());
@@ -221,9 +250,15 @@ public class DatatypeFactory {
             @Override
             public XdmValue convert(String input, Configuration configuration) throws ValidationException {
                 Source source = null;
-                try {
-                    configuration.getURIResolver().resolve(input, null);
-                } catch(TransformerException ex0) {
+                URIResolver resolver = configuration.getURIResolver();
+                if(resolver!=null) {
+                    try {
+                        source = resolver.resolve(input, null);
+                    } catch(TransformerException ex0) {
+                        // loaded below
+                    }
+                }
+                if(source==null) {
                     InputStream is = null;
                     try {
                         URI uri = new URI(input);
@@ -243,15 +278,46 @@ public class DatatypeFactory {
                     }
                     source = new StreamSource(is);
                 }
-                DocumentBuilder builder = new Processor(configuration).newDocumentBuilder();
                 try {
-                    return builder.build(source);
+                    return getNodeParser(configuration).processor.newDocumentBuilder().build(source);
                 } catch (SaxonApiException ex) {
                     throw new ValidationException("Unable to load document "+input,ex);
                 }
             }
         };
     }
+    /**
+     * Returns the parsing state of node datatypes for <tt>configuration</tt>.
+     * It is built on first use, and rebuilt only if another configuration is used.
+     */
+    private NodeParser getNodeParser(Configuration configuration) throws SaxonApiException {
+        NodeParser parser = nodeParser;
+        if(parser==null || parser.configuration!=configuration) {
+            parser = new NodeParser(configuration);
+            nodeParser = parser;
+        }
+        return parser;
+    }
+    
+    /**
+     * A Processor, and the compiled selector of wrapped fragments' nodes.
+     * Both are thread-safe ; a DocumentBuilder and a XPathSelector are
+     * created for each conversion.
+     */
+    private static class NodeParser {
+        private final Configuration configuration;
+        private final Processor processor;
+        private final XPathExecutable children;
+        NodeParser(Configuration configuration) throws SaxonApiException {
+            super();
+            this.configuration = configuration;
+            processor = new Processor(configuration);
+            XPathCompiler compiler = processor.newXPathCompiler();
+            compiler.declareNamespace("fake", WRAPPER_NS);
+            children = compiler.compile("/fake:document/node()");
+        }
+    }
+    
     public static DatatypeFactory getInstance(Configuration configuration) throws ValidationException {
         return new DatatypeFactory(configuration.getConversionRules());
     }
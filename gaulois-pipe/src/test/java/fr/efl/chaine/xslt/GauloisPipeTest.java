@@ -10,8 +10,10 @@ import fr.efl.chaine.xslt.config.Config;
 import fr.efl.chaine.xslt.config.ConfigUtil;
 import fr.efl.chaine.xslt.config.ParametrableStep;
 import fr.efl.chaine.xslt.utils.ExceptionThrowerStep;
+import fr.efl.chaine.xslt.utils.Manifest;
 import fr.efl.chaine.xslt.utils.MutableBoolean;
 import fr.efl.chaine.xslt.utils.ParameterValue;
+import fr.efl.chaine.xslt.utils.ProcessingHistory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -132,6 +134,294 @@ public class GauloisPipeTest {
         assertTrue(expect.exists());
         expect.delete();
         assertEquals(1, piper.getDocumentCacheSize());
+        // source has been parsed only once
+        assertEquals(1, piper.getDocumentCache().getMisses());
+        assertEquals(1, piper.getDocumentCache().getHits());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/prefetch.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        assertEquals(2, config.getPipe().getPrefetch());
+        assertEquals(1048576L, config.getPipe().getPrefetchMaxSize());
+        piper.setConfig(config);
+        piper.setInstanceName("PREFETCH");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        for(String name: new String[] {"source", "paye1", "paye2"}) {
+            File expect = new File("target/generated-test-files/"+name+"-prefetch.xml");
+            assertTrue(name+" not transformed", expect.exists());
+            expect.delete();
+        }
+    }
+
+    @Test
+    public void testHugeFilesLane() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/huge-files-lane.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        assertEquals(2, config.getPipe().getHugeFilesThreads());
+        assertEquals(100000L, config.getPipe().getHeapBudget());
+        assertEquals(4.5, config.getPipe().getExpansionFactor(), 0.0);
+        assertEquals(2, config.getSources().getFilesOverLimit(config.getPipe().getMultithreadMaxSourceSize()).size());
+        piper.setConfig(config);
+        piper.setInstanceName("HUGE_FILES_LANE");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        for(String name: new String[] {"source", "paye1", "paye2"}) {
+            File expect = new File("target/generated-test-files/"+name+"-huge-lane.xml");
+            assertTrue(name+" not transformed", expect.exists());
+            expect.delete();
+        }
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/pipelined.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        assertTrue(config.getPipe().isPipelined());
+        piper.setConfig(config);
+        piper.setInstanceName("PIPELINED");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        Processor proc = new Processor(configFactory.getConfiguration());
+        XPathExecutable exec = proc.newXPathCompiler().compile("/*[@test]");
+        for(String name: new String[] {"source", "paye1", "paye2"}) {
+            File expect = new File("target/generated-test-files/"+name+"-pipelined.xml");
+            assertTrue(name+" not transformed", expect.exists());
+            XPathSelector selector = exec.load();
+            selector.setContextItem(proc.newDocumentBuilder().build(expect));
+            // java step, in second stage, has been applied
+            assertEquals(1, selector.evaluate().size());
+            expect.delete();
+        }
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/split.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        assertEquals(10, config.getSources().getFiles().get(0).getSplitSize());
+        piper.setConfig(config);
+        piper.setInstanceName("SPLIT");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        File expect = new File("target/generated-test-files/records-split.xml");
+        assertTrue(expect.exists());
+        Processor proc = new Processor(configFactory.getConfiguration());
+        XPathCompiler compiler = proc.newXPathCompiler();
+        compiler.declareNamespace("r", "http://efl.fr/test/records");
+        XPathSelector selector = compiler.compile("string-join(/r:records[@version='1']/r:record/@id, ',')").load();
+        selector.setContextItem(proc.newDocumentBuilder().build(expect));
+        // all records, in input order, under a single root
+        assertEquals("1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25", selector.evaluate().toString());
+        expect.delete();
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/streaming.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        assertTrue(config.getPipe().isStreaming());
+        piper.setConfig(config);
+        piper.setInstanceName("STREAMING");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        Processor proc = new Processor(configFactory.getConfiguration());
+        XPathExecutable exec = proc.newXPathCompiler().compile("//*[not(@test)]");
+        for(String name: new String[] {"source", "paye1"}) {
+            File expect = new File("target/generated-test-files/"+name+"-streaming.xml");
+            assertTrue(name+" not transformed", expect.exists());
+            XPathSelector selector = exec.load();
+            selector.setContextItem(proc.newDocumentBuilder().build(expect));
+            // java step, first of pipe, has been applied on all elements
+            assertEquals(0, selector.evaluate().size());
+            expect.delete();
+        }
+    }
+
+    @Test(expected = InvalidSyntaxException.class)
+    public void testStreamingSplitKo() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/streaming-split-ko.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        // chunks can not be sent to the java step that starts a streaming pipe
+        config.verify();
+    }
+
+    @Test
+    public void testScanWhileProcessing() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/scan-define.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        // folder is scanned only when pipe is launched
+        assertEquals(1, config.getSources().getFiles().size());
+        assertEquals(1, config.getSources().getFolders().size());
+        piper.setConfig(config);
+        piper.setInstanceName("SCAN_DEFINE");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        assertEquals(3, piper.getProcessedInputsCount());
+        for(String name: new String[] {"source", "a", "b"}) {
+            File output = new File("target/generated-test-files/scan-define/"+name+"-scanned.xml");
+            assertTrue(output.getPath()+" not written", output.exists());
+        }
+    }
+
+    @Test
+    public void testScanWhileProcessingCountsUsage() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/scan-define-reuse.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        File reused = config.getSources().getFiles().get(0).getSource();
+        assertEquals(1, config.getSources().getFileUsage(reused));
+        piper.setConfig(config);
+        piper.setInstanceName("SCAN_DEFINE_REUSE");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        assertEquals(3, piper.getProcessedInputsCount());
+        // found in folder, and defined after it : parsed once, through the document cache
+        assertEquals(2, config.getSources().getFileUsage(reused));
+        assertEquals(1, piper.getDocumentCache().getMisses());
+        assertEquals(1, piper.getDocumentCache().getHits());
+    }
+
+    @Test
+    public void testOrderByHistory() throws Exception {
+        File history = new File("target/generated-test-files/history.txt");
+        history.delete();
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/history.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        assertNotNull(config.getSources().getHistory());
+        piper.setConfig(config);
+        piper.setInstanceName("HISTORY");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        assertTrue("history not written", history.isFile());
+        assertEquals(2, new ProcessingHistory(history).size());
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        File[] outputs = new File[] {
+            new File("target/generated-test-files/source-incremental.xml"),
+            new File("target/generated-test-files/paye1-incremental.xml")
+        };
+        for(File output: outputs) {
+            output.delete();
+            Manifest.getManifestFile(output).delete();
+        }
+        GauloisPipe piper = runIncremental();
+        assertEquals(2, piper.getProcessedInputsCount());
+        assertEquals(0, piper.getSkippedInputsCount());
+        for(File output: outputs) {
+            assertTrue(output.getPath()+" not written", output.exists());
+            assertTrue(output.getPath()+" has no manifest", Manifest.getManifestFile(output).exists());
+        }
+        // nothing has changed
+        piper = runIncremental();
+        assertEquals(0, piper.getProcessedInputsCount());
+        assertEquals(2, piper.getSkippedInputsCount());
+        // an output has been removed
+        outputs[1].delete();
+        piper = runIncremental();
+        assertEquals(1, piper.getProcessedInputsCount());
+        assertEquals(1, piper.getSkippedInputsCount());
+        assertTrue(outputs[1].exists());
+        for(File output: outputs) {
+            output.delete();
+            Manifest.getManifestFile(output).delete();
+        }
+    }
+    private GauloisPipe runIncremental() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/incremental.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        piper.setConfig(config);
+        piper.setInstanceName("INCREMENTAL");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        return piper;
+    }
+
+    @Test
+    public void testResultCache() throws Exception {
+        File cacheDir = new File("target/generated-test-files/result-cache");
+        File[] entries = cacheDir.listFiles();
+        if(entries!=null) {
+            for(File entry: entries) {
+                for(File f: entry.listFiles()) f.delete();
+                entry.delete();
+            }
+        }
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/result-cache.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        piper.setConfig(config);
+        piper.setInstanceName("RESULT_CACHE");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        // sources have the same content
+        assertEquals(1, piper.getResultCache().getMisses());
+        assertEquals(1, piper.getResultCache().getHits());
+        assertEquals(1, piper.getResultCache().size());
+        File output = new File("target/generated-test-files/source-result-cache.xml");
+        File copy = new File("target/generated-test-files/source-copy-result-cache.xml");
+        assertTrue(output.exists());
+        assertTrue(copy.exists());
+        assertEquals(output.length(), copy.length());
+        output.delete();
+        copy.delete();
+    }
+
+    @Test
+    public void testResultCacheKeepsLocation() throws Exception {
+        File cacheDir = new File("target/generated-test-files/result-cache-location");
+        File[] entries = cacheDir.listFiles();
+        if(entries!=null) {
+            for(File entry: entries) {
+                for(File f: entry.listFiles()) f.delete();
+                entry.delete();
+            }
+        }
+        GauloisPipe piper = launchResultCacheLocation();
+        // same content, but under different paths
+        assertEquals(2, piper.getResultCache().getMisses());
+        assertEquals(0, piper.getResultCache().getHits());
+        assertEquals(2, piper.getResultCache().size());
+        // same paths
+        piper = launchResultCacheLocation();
+        assertEquals(0, piper.getResultCache().getMisses());
+        assertEquals(2, piper.getResultCache().getHits());
+        assertTrue(new File("target/generated-test-files/source-result-cache-location.xml").exists());
+        assertTrue(new File("target/generated-test-files/source-copy-result-cache-location.xml").exists());
+    }
+    private GauloisPipe launchResultCacheLocation() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/result-cache-location.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        piper.setConfig(config);
+        piper.setInstanceName("RESULT_CACHE_LOCATION");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        return piper;
     }
 
     @Test
@@ -227,6 +517,28 @@ public class GauloisPipeTest {
         if(expect3.exists()) expect3.delete();
     }
     
+    @Test
+    public void testParallelTee() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/parallel-tee.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        assertTrue(config.getPipe().getTee().isParallel());
+        assertTrue(config.getPipe().getTee().getPipes().get(1).getTee().isParallel());
+        piper.setConfig(config);
+        piper.setInstanceName("PARALLEL_TEE");
+        piper.launch();
+        assertTrue(piper.getErrors().isEmpty());
+        for(String input: new String[] {"source", "paye1"}) {
+            for(String branch: new String[] {"ptee1", "ptee2", "ptee3"}) {
+                File expect = new File("./target/generated-test-files/"+input+"-"+branch+".xml");
+                assertTrue("The file "+expect.getPath()+" does not exists", expect.exists());
+                assertTrue(expect.getPath()+" is empty", expect.length()>0);
+                expect.delete();
+            }
+        }
+    }
+    
     @Test(expected = InvalidSyntaxException.class)
     public void testInitialJavaStepKo() throws Exception {
         // checks a Java can not be an initial step
@@ -376,6 +688,23 @@ public class GauloisPipeTest {
         expect = new File("target/generated-test-files/paye2-choose.xml");
         assertTrue("The file target/generated-test-files/paye2-choose.xml does not exists", expect.exists());
         expect.delete();
+        // XSLs are resolved only once, even if used by many inputs
+        assertEquals(piper.getXsltCacheSize(), piper.getXslResolutionCount());
+    }
+    @Test
+    public void testChooseEffectiveBooleanValue() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/choose-ebv.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        piper.setConfig(config);
+        piper.setInstanceName("CHOOSE_EBV");
+        piper.launch();
+        File expect = new File("target/generated-test-files/paye1-choose-ebv.xml");
+        assertTrue("The file target/generated-test-files/paye1-choose-ebv.xml does not exists", expect.exists());
+        String content = new String(Files.readAllBytes(expect.toPath()), "UTF-8");
+        assertTrue("when branch has not been selected on an attribute test", content.contains("<ANNEE"));
+        expect.delete();
     }
     @Test
     public void testChooseInsideTee() throws Exception {
@@ -389,6 +718,25 @@ public class GauloisPipeTest {
         File expect = new File("target/generated-test-files/paye1-chooseInsideTee.xml");
         assertTrue("The file target/generated-test-files/paye1-chooseInsideTee.xml does not exists", expect.exists());
         expect.delete();
+        // all XSLs, including the ones of the when branch not used, are compiled
+        assertEquals(3, piper.getXsltCacheSize());
+    }
+    @Test
+    public void testChooseUnreachableBranchCompiled() throws Exception {
+        GauloisPipe piper = new GauloisPipe(configFactory);
+        ConfigUtil cu = new ConfigUtil(configFactory.getConfiguration(), piper.getUriResolver(), "./src/test/resources/choose-unreachable-ko.xml");
+        Config config = cu.buildConfig(emptyInputParams);
+        config.verify();
+        piper.setConfig(config);
+        piper.setInstanceName("CHOOSE_UNREACHABLE");
+        try {
+            piper.launch();
+            fail("XSL of an unreachable branch has not been compiled");
+        } catch(SaxonApiException ex) {
+            // expected
+        }
+        File expect = new File("target/generated-test-files/paye1-choose-unreachable.xml");
+        assertFalse("An input has been processed before all XSLs have been compiled", expect.exists());
     }
     @Test(expected = InvalidSyntaxException.class)
     public void testNoSource() throws Exception {
@@ -139,4 +139,14 @@ public class ConfigUtilTest {
         Config config = cu.buildConfig(cliParameters);
         config.verify();
     }
+
+    @Test
+    public void testXsBooleanValue() {
+        assertTrue(ConfigUtil.getXsBooleanValue("true"));
+        assertTrue(ConfigUtil.getXsBooleanValue("1"));
+        assertTrue(ConfigUtil.getXsBooleanValue(" true\n"));
+        assertFalse(ConfigUtil.getXsBooleanValue("false"));
+        assertFalse(ConfigUtil.getXsBooleanValue("0"));
+        assertFalse(ConfigUtil.getXsBooleanValue(null));
+    }
 }
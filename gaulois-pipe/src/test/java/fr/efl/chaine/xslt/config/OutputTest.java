@@ -21,6 +21,8 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import top.marchand.xml.gaulois.config.typing.Datatype;
+import top.marchand.xml.gaulois.config.typing.DatatypeFactory;
 
 /**
  * Permet de tester le formattage de l'output
@@ -165,4 +167,36 @@ public class OutputTest {
             assertEquals("problen in indentation","</root>",line);
         }
     }
+
+    @Test
+    public void destinationFileIsComputed() throws Exception {
+        System.setProperty("gaulois.output.test", "target/generated-test-files");
+        output.setAbsolute("${gaulois.output.test}/$[dir]");
+        output.setPrefix("p-");
+        output.setName("${basename}-$[lang]");
+        output.setSuffix("${extension}");
+        output.verify();
+        Datatype xsString = DatatypeFactory.getInstance(configFactory.getConfiguration()).XS_STRING;
+        HashMap<QName,ParameterValue> parameters = new HashMap<>();
+        parameters.put(new QName("dir"), new ParameterValue(new QName("dir"), "out", xsString));
+        parameters.put(new QName("lang"), new ParameterValue(new QName("lang"), "fr", xsString));
+        File expected = new File(new File("target/generated-test-files", "out"), "p-source-fr.xml");
+        assertEquals(expected, output.getDestinationFile(new File("src/source.xml"), parameters));
+        assertEquals(new File(expected.getParentFile(), "p-other-fr.xml"), output.getDestinationFile(new File("src/other.xml"), parameters));
+        // a source without extension
+        assertEquals(new File(expected.getParentFile(), "p-README-fr"), output.getDestinationFile(new File("README"), parameters));
+    }
+
+    @Test
+    public void relativeDestinationFileIsComputed() throws Exception {
+        output.setRelativeTo("source-file");
+        output.setRelativePath("out");
+        output.setName("${name}");
+        output.verify();
+        assertEquals(new File(new File("src/a", "out"), "source.xml"), output.getDestinationFile(new File("src/a/source.xml"), emptyInputParams));
+        assertEquals(new File(new File("src/b", "out"), "source.xml"), output.getDestinationFile(new File("src/b/source.xml"), emptyInputParams));
+        // template is recompiled when output changes
+        output.setName("$[unknown].xml");
+        assertEquals(new File(new File("src/a", "out"), "$[unknown].xml"), output.getDestinationFile(new File("src/a/source.xml"), emptyInputParams));
+    }
 }
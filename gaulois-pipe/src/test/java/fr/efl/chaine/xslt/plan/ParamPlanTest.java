@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of 
+ * the Mozilla Public License, v. 2.0. If a copy of 
+ * the MPL was not distributed with this file, You 
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.plan;
+
+import fr.efl.chaine.xslt.utils.ParameterValue;
+import java.util.HashMap;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import top.marchand.xml.gaulois.config.typing.DatatypeFactory;
+
+/**
+ * Tests ParamPlan
+ * @author cmarchand
+ */
+public class ParamPlanTest {
+    private static Configuration configuration;
+    private static DatatypeFactory factory;
+
+    @BeforeClass
+    public static void initialize() throws Exception {
+        configuration = Configuration.newConfiguration();
+        factory = DatatypeFactory.getInstance(configuration);
+    }
+
+    @Test
+    public void constantIsConvertedOnce() throws Exception {
+        ParameterValue pv = new ParameterValue(new QName("p"), new XdmAtomicValue("12"), factory.getDatatype(new QName(DatatypeFactory.NS_XSD, "integer")));
+        ParamPlan plan = ParamPlan.of(pv, configuration);
+        XdmValue v1 = plan.getValue(new HashMap<QName,ParameterValue>(), configuration);
+        XdmValue v2 = plan.getValue(new HashMap<QName,ParameterValue>(), configuration);
+        assertSame(v1, v2);
+        assertEquals(12L, ((XdmAtomicValue)v1).getLongValue());
+    }
+
+    @Test
+    public void templateIsSubstitutedForEachDocument() throws Exception {
+        ParameterValue pv = new ParameterValue(new QName("p"), "$[input-basename].xml", factory.XS_STRING);
+        ParamPlan plan = ParamPlan.of(pv, configuration);
+        HashMap<QName,ParameterValue> params = new HashMap<>();
+        QName qn = new QName("input-basename");
+        params.put(qn, new ParameterValue(qn, "doc1", factory.XS_STRING));
+        assertEquals("doc1.xml", plan.getValue(params, configuration).toString());
+        params.put(qn, new ParameterValue(qn, "doc2", factory.XS_STRING));
+        assertEquals("doc2.xml", plan.getValue(params, configuration).toString());
+    }
+
+    @Test
+    public void abstractParameterHasNoPlan() throws Exception {
+        ParameterValue pv = new ParameterValue(new QName("p"), factory.XS_STRING);
+        assertNull(ParamPlan.of(pv, configuration));
+    }
+}
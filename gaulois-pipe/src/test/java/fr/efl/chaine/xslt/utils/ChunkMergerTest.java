@@ -0,0 +1,65 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.StringReader;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmNode;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests ChunkMerger
+ * @author cmarchand
+ */
+public class ChunkMergerTest {
+    private static Processor processor;
+
+    @BeforeClass
+    public static void initialize() {
+        processor = new Processor(Configuration.newConfiguration());
+    }
+
+    private static XdmNode build(String document) throws SaxonApiException {
+        return processor.newDocumentBuilder().build(new StreamSource(new StringReader(document)));
+    }
+
+    private static String evaluate(XdmNode node, String xpath) throws SaxonApiException {
+        XPathSelector selector = processor.newXPathCompiler().compile(xpath).load();
+        selector.setContextItem(node);
+        return selector.evaluate().toString();
+    }
+
+    @Test
+    public void chunksAreMergedInOrder() throws SaxonApiException {
+        XdmDestination destination = new XdmDestination();
+        ChunkMerger merger = new ChunkMerger(destination.getReceiver(processor.getUnderlyingConfiguration()));
+        merger.add(build("<root xmlns:a='urn:a' id='r'><a:record n='1'/><a:record n='2'/></root>"));
+        merger.add(build("<root xmlns:a='urn:a' id='other'><a:record n='3'/></root>"));
+        merger.close();
+        XdmNode result = destination.getXdmNode();
+        // root of first result
+        assertEquals("r", evaluate(result, "string(/root/@id)"));
+        assertEquals("urn:a", evaluate(result, "string(namespace-uri-for-prefix('a', /root))"));
+        assertEquals("1,2,3", evaluate(result, "string-join(/root/*/@n, ',')"));
+    }
+
+    @Test
+    public void emptyMergeIsADocument() throws SaxonApiException {
+        XdmDestination destination = new XdmDestination();
+        ChunkMerger merger = new ChunkMerger(destination.getReceiver(processor.getUnderlyingConfiguration()));
+        merger.close();
+        assertEquals("0", evaluate(destination.getXdmNode(), "count(/*)"));
+    }
+
+}
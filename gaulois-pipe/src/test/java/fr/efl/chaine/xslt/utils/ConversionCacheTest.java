@@ -0,0 +1,75 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.type.ValidationException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import top.marchand.xml.gaulois.config.typing.Datatype;
+import top.marchand.xml.gaulois.config.typing.DatatypeFactory;
+
+/**
+ * Tests ConversionCache
+ * @author cmarchand
+ */
+public class ConversionCacheTest {
+    private static Configuration configuration;
+    private static DatatypeFactory factory;
+
+    @BeforeClass
+    public static void beforeClass() throws ValidationException {
+        configuration = Configuration.newConfiguration();
+        factory = DatatypeFactory.getInstance(configuration);
+    }
+
+    @Test
+    public void sameInputIsConvertedOnce() throws ValidationException {
+        Datatype intType = factory.getDatatype(new QName(DatatypeFactory.NS_XSD, "xs:int"));
+        ConversionCache cache = new ConversionCache(ConversionCache.DEFAULT_MAX_ENTRIES);
+        XdmValue first = cache.convert(intType, "4", configuration);
+        XdmValue second = cache.convert(intType, "4", configuration);
+        assertSame(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        // same string, another datatype
+        XdmValue string = cache.convert(factory.XS_STRING, "4", configuration);
+        assertNotSame(first, string);
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedAreRemoved() throws ValidationException {
+        ConversionCache cache = new ConversionCache(2);
+        XdmValue a = cache.convert(factory.XS_STRING, "a", configuration);
+        cache.convert(factory.XS_STRING, "b", configuration);
+        // a is used more recently than b
+        assertSame(a, cache.convert(factory.XS_STRING, "a", configuration));
+        cache.convert(factory.XS_STRING, "c", configuration);
+        assertEquals(2, cache.size());
+        assertSame(a, cache.convert(factory.XS_STRING, "a", configuration));
+        long misses = cache.getMisses();
+        cache.convert(factory.XS_STRING, "b", configuration);
+        assertEquals(misses+1, cache.getMisses());
+    }
+
+    @Test(expected = ValidationException.class)
+    public void invalidInputIsNotCached() throws ValidationException {
+        Datatype intType = factory.getDatatype(new QName(DatatypeFactory.NS_XSD, "xs:int"));
+        ConversionCache cache = new ConversionCache(ConversionCache.DEFAULT_MAX_ENTRIES);
+        try {
+            cache.convert(intType, "four", configuration);
+        } finally {
+            assertEquals(0, cache.size());
+        }
+    }
+
+}
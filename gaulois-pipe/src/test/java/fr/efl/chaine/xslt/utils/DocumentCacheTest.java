@@ -0,0 +1,176 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.TreeModel;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XdmNode;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests DocumentCache
+ * @author cmarchand
+ */
+public class DocumentCacheTest {
+    private static DocumentBuilder builder;
+
+    @BeforeClass
+    public static void initialize() {
+        builder = new Processor(Configuration.newConfiguration()).newDocumentBuilder();
+    }
+
+    private static Callable<XdmNode> loader(final String content, final AtomicInteger loads) {
+        return new Callable<XdmNode>() {
+            @Override
+            public XdmNode call() throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(100);
+                return builder.build(new StreamSource(new StringReader(content)));
+            }
+        };
+    }
+
+    @Test
+    public void loadedOnlyOnce() throws Exception {
+        final DocumentCache cache = new DocumentCache(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final Callable<XdmNode> load = loader("<doc/>", loads);
+        ExecutorService service = Executors.newFixedThreadPool(8);
+        List<Future<XdmNode>> results = new ArrayList<>();
+        for(int i=0;i<8;i++) {
+            results.add(service.submit(new Callable<XdmNode>() {
+                @Override
+                public XdmNode call() throws Exception {
+                    return cache.get("doc.xml", load);
+                }
+            }));
+        }
+        XdmNode first = results.get(0).get();
+        for(Future<XdmNode> f:results) {
+            assertSame(first, f.get());
+        }
+        service.shutdown();
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(7, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        DocumentCache cache = new DocumentCache(2);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("a", loader("<a/>", loads));
+        cache.get("b", loader("<b/>", loads));
+        cache.get("a", loader("<a/>", loads));
+        cache.get("c", loader("<c/>", loads));
+        assertEquals(2, cache.size());
+        assertEquals(3, loads.get());
+        // a has been used more recently than b
+        cache.get("a", loader("<a/>", loads));
+        assertEquals(3, loads.get());
+        cache.get("b", loader("<b/>", loads));
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void evictedBySize() throws Exception {
+        long smallSize = DocumentCache.estimateSize(builder.build(new StreamSource(new StringReader("<a/>"))));
+        assertTrue(smallSize>0);
+        DocumentCache cache = new DocumentCache(Integer.MAX_VALUE, 3*smallSize);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("a", loader("<a/>", loads));
+        cache.get("b", loader("<b/>", loads));
+        cache.get("c", loader("<c/>", loads));
+        assertEquals(3, cache.size());
+        assertEquals(3*smallSize, cache.getWeight());
+        // too big to be kept, and does not evict others
+        cache.get("big", loader("<big><c>some text</c><c>some text</c><c>some text</c></big>", loads));
+        assertEquals(3, cache.size());
+        assertEquals(3*smallSize, cache.getWeight());
+        // least recently used is evicted
+        cache.get("d", loader("<d/>", loads));
+        assertEquals(3, cache.size());
+        cache.get("b", loader("<b/>", loads));
+        cache.get("c", loader("<c/>", loads));
+        cache.get("d", loader("<d/>", loads));
+        assertEquals(5, loads.get());
+        cache.get("a", loader("<a/>", loads));
+        assertEquals(6, loads.get());
+    }
+
+    @Test
+    public void failureIsNotCached() throws Exception {
+        DocumentCache cache = new DocumentCache(1);
+        try {
+            cache.get("ko", new Callable<XdmNode>() {
+                @Override
+                public XdmNode call() throws Exception {
+                    throw new IOException("can not read");
+                }
+            });
+            fail("load error not thrown");
+        } catch(IOException ex) {
+            assertEquals("can not read", ex.getMessage());
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void otherTreeModelIsEvictedBySize() throws Exception {
+        final DocumentBuilder linkedBuilder = new Processor(Configuration.newConfiguration()).newDocumentBuilder();
+        linkedBuilder.setTreeModel(TreeModel.LINKED_TREE);
+        File dir = new File("target/generated-test-files");
+        dir.mkdirs();
+        final File file = new File(dir, "document-cache-linked.xml");
+        try(Writer writer = new FileWriter(file)) {
+            writer.write("<doc><p>some text</p></doc>");
+        }
+        Callable<XdmNode> fromFile = new Callable<XdmNode>() {
+            @Override
+            public XdmNode call() throws Exception {
+                return linkedBuilder.build(file);
+            }
+        };
+        long fileWeight = (long)(file.length()*HeapBudget.DEFAULT_EXPANSION_FACTOR);
+        // estimated from file size
+        DocumentCache cache = new DocumentCache(Integer.MAX_VALUE, fileWeight);
+        cache.get("file", fromFile);
+        assertEquals(1, cache.size());
+        assertEquals(fileWeight, cache.getWeight());
+        // bigger than max size
+        cache = new DocumentCache(Integer.MAX_VALUE, fileWeight-1);
+        cache.get("file", fromFile);
+        assertEquals(0, cache.size());
+        // no file, size is unknown
+        cache.get("noFile", new Callable<XdmNode>() {
+            @Override
+            public XdmNode call() throws Exception {
+                return linkedBuilder.build(new StreamSource(new StringReader("<doc/>")));
+            }
+        });
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+}
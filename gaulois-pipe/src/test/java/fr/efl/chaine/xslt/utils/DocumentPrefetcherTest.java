@@ -0,0 +1,139 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests DocumentPrefetcher
+ * @author cmarchand
+ */
+public class DocumentPrefetcherTest {
+    private static DocumentBuilder builder;
+
+    @BeforeClass
+    public static void initialize() {
+        builder = new Processor(Configuration.newConfiguration()).newDocumentBuilder();
+    }
+
+    private static List<ParametrableFile> inputs(int count) {
+        List<ParametrableFile> ret = new ArrayList<>(count);
+        for(int i=0;i<count;i++) {
+            ret.add(new ParametrableFile(new File("doc-"+i+".xml")));
+        }
+        return ret;
+    }
+
+    @Test
+    public void eachInputParsedOnce() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        DocumentPrefetcher prefetcher = new DocumentPrefetcher(2, 0L, 2, new DocumentPrefetcher.Loader() {
+            @Override
+            public XdmNode load(ParametrableFile input) throws Exception {
+                loads.incrementAndGet();
+                return builder.build(new StreamSource(new StringReader("<doc name=\""+input.getFile().getName()+"\"/>")));
+            }
+        }, Executors.defaultThreadFactory());
+        List<ParametrableFile> inputs = inputs(10);
+        prefetcher.start(inputs);
+        try {
+            for(ParametrableFile input: inputs) {
+                XdmNode doc = prefetcher.take(input);
+                prefetcher.release(input);
+                assertTrue(doc.toString().contains(input.getFile().getName()));
+            }
+        } finally {
+            prefetcher.shutdown();
+        }
+        assertEquals(10, loads.get());
+    }
+
+    @Test
+    public void parsedAheadIsBounded() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        DocumentPrefetcher prefetcher = new DocumentPrefetcher(3, 0L, 2, new DocumentPrefetcher.Loader() {
+            @Override
+            public XdmNode load(ParametrableFile input) throws Exception {
+                loads.incrementAndGet();
+                return builder.build(new StreamSource(new StringReader("<doc/>")));
+            }
+        }, Executors.defaultThreadFactory());
+        List<ParametrableFile> inputs = inputs(10);
+        prefetcher.start(inputs);
+        try {
+            Thread.sleep(300);
+            // nothing taken yet : only 3 documents may have been parsed ahead
+            assertEquals(3, loads.get());
+            prefetcher.take(inputs.get(0));
+            prefetcher.release(inputs.get(0));
+            Thread.sleep(300);
+            assertEquals(4, loads.get());
+        } finally {
+            prefetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void failureIsThrownToTaker() throws Exception {
+        DocumentPrefetcher prefetcher = new DocumentPrefetcher(2, 0L, 1, new DocumentPrefetcher.Loader() {
+            @Override
+            public XdmNode load(ParametrableFile input) throws Exception {
+                throw new SaxonApiException("not well-formed");
+            }
+        }, Executors.defaultThreadFactory());
+        List<ParametrableFile> inputs = inputs(1);
+        prefetcher.start(inputs);
+        try {
+            prefetcher.take(inputs.get(0));
+            fail("parse error not thrown");
+        } catch(SaxonApiException ex) {
+            assertEquals("not well-formed", ex.getMessage());
+        } finally {
+            prefetcher.release(inputs.get(0));
+            prefetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void releaseWithoutTakeFreesBudgetOnce() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        DocumentPrefetcher prefetcher = new DocumentPrefetcher(2, 0L, 2, new DocumentPrefetcher.Loader() {
+            @Override
+            public XdmNode load(ParametrableFile input) throws Exception {
+                loads.incrementAndGet();
+                return builder.build(new StreamSource(new StringReader("<doc/>")));
+            }
+        }, Executors.defaultThreadFactory());
+        List<ParametrableFile> inputs = inputs(10);
+        prefetcher.start(inputs);
+        try {
+            Thread.sleep(300);
+            assertEquals(2, loads.get());
+            // processing failed before document was taken, and it is released again by caller
+            prefetcher.release(inputs.get(0));
+            prefetcher.release(inputs.get(0));
+            Thread.sleep(300);
+            assertEquals(3, loads.get());
+        } finally {
+            prefetcher.shutdown();
+        }
+    }
+}
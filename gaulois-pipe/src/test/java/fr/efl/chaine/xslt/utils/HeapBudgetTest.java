@@ -0,0 +1,83 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests HeapBudget
+ * @author cmarchand
+ */
+public class HeapBudgetTest {
+
+    @Test
+    public void budgetIsNeverExceeded() throws Exception {
+        final HeapBudget budget = new HeapBudget(1000, 2.0);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService service = Executors.newFixedThreadPool(8);
+        for(int i=0;i<32;i++) {
+            service.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // 200 bytes reserved : at most 5 at the same time
+                        long reserved = budget.acquire(100);
+                        try {
+                            int r = running.incrementAndGet();
+                            synchronized(maxRunning) {
+                                maxRunning.set(Math.max(maxRunning.get(), r));
+                            }
+                            Thread.sleep(10);
+                            running.decrementAndGet();
+                        } finally {
+                            budget.release(reserved);
+                        }
+                    } catch(InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        service.shutdown();
+        assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get()<=5);
+        assertEquals(1000L, budget.getMaxReserved());
+        assertEquals(0L, budget.getReserved());
+    }
+
+    @Test
+    public void oversizedIsAdmittedAlone() throws Exception {
+        HeapBudget budget = new HeapBudget(1000, 1.0);
+        long reserved = budget.acquire(5000);
+        assertEquals(5000L, reserved);
+        budget.release(reserved);
+        assertEquals(0L, budget.getReserved());
+    }
+
+    @Test
+    public void expansionFactorIsLearned() throws Exception {
+        HeapBudget budget = new HeapBudget(1000, 0);
+        assertEquals(HeapBudget.DEFAULT_EXPANSION_FACTOR, budget.getExpansionFactor(), 0.0);
+        // small files are ignored
+        budget.learn(100, 100000);
+        assertEquals(HeapBudget.DEFAULT_EXPANSION_FACTOR, budget.getExpansionFactor(), 0.0);
+        for(int i=0;i<100;i++) {
+            budget.learn(100000, 300000);
+        }
+        assertEquals(3.0, budget.getExpansionFactor(), 0.01);
+        // a configured factor is never changed
+        HeapBudget configured = new HeapBudget(1000, 2.0);
+        configured.learn(100000, 300000);
+        assertEquals(2.0, configured.getExpansionFactor(), 0.0);
+    }
+}
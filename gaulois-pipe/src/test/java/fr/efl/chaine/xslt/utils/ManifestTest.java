@@ -0,0 +1,70 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests Manifest
+ * @author cmarchand
+ */
+public class ManifestTest {
+
+    private static File writeFile(String name, String content) throws Exception {
+        File dir = new File("target/generated-test-files");
+        dir.mkdirs();
+        File file = new File(dir, name);
+        try(OutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        File input = writeFile("manifest-input.xml", "<a/>");
+        File output = writeFile("manifest-output.xml", "<b/>");
+        Manifest manifest = new Manifest(input.length(), input.lastModified(), null, "xsl", "params");
+        manifest.getInputHash(input);
+        manifest.write(output);
+        Manifest read = Manifest.read(output);
+        assertNotNull(read);
+        assertTrue(manifest.matches(read, input));
+        assertFalse(new Manifest(input.length(), input.lastModified(), null, "other-xsl", "params").matches(read, input));
+        assertFalse(new Manifest(input.length(), input.lastModified(), null, "xsl", "other-params").matches(read, input));
+        Manifest.getManifestFile(output).delete();
+        assertNull(Manifest.read(output));
+    }
+
+    @Test
+    public void contentIsComparedWhenDateChanges() throws Exception {
+        File input = writeFile("manifest-input2.xml", "<a/>");
+        File output = writeFile("manifest-output2.xml", "<b/>");
+        Manifest manifest = new Manifest(input.length(), input.lastModified()-10000, null, "xsl", "params");
+        manifest.getInputHash(input);
+        manifest.write(output);
+        // same content, other date
+        Manifest current = new Manifest(input.length(), input.lastModified(), null, "xsl", "params");
+        assertTrue(current.matches(Manifest.read(output), input));
+        // other content, same size
+        input = writeFile("manifest-input2.xml", "<c/>");
+        current = new Manifest(input.length(), input.lastModified(), null, "xsl", "params");
+        assertFalse(current.matches(Manifest.read(output), input));
+        Manifest.getManifestFile(output).delete();
+    }
+
+    @Test
+    public void hexEncoding() {
+        assertEquals("00ff10", Manifest.toHex(new byte[] {0, (byte)0xff, 0x10}));
+        assertEquals(64, Manifest.hash("gaulois").length());
+    }
+}
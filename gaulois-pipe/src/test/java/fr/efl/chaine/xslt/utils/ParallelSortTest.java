@@ -0,0 +1,64 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests ParallelSort
+ * @author cmarchand
+ */
+public class ParallelSortTest {
+
+    @Test
+    public void largeListIsSortedAndStable() {
+        Random random = new Random(42);
+        List<long[]> list = new ArrayList<>();
+        for(int i=0;i<10*ParallelSort.THRESHOLD;i++) {
+            // {key, original position}
+            list.add(new long[] {random.nextInt(1000), i});
+        }
+        ParallelSort.sort(list, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] l1, long[] l2) {
+                return Long.compare(l1[0], l2[0]);
+            }
+        });
+        assertEquals(10*ParallelSort.THRESHOLD, list.size());
+        for(int i=1;i<list.size();i++) {
+            long[] previous = list.get(i-1);
+            long[] current = list.get(i);
+            assertTrue("not sorted at "+i, previous[0]<=current[0]);
+            if(previous[0]==current[0]) {
+                assertTrue("not stable at "+i, previous[1]<current[1]);
+            }
+        }
+    }
+
+    @Test
+    public void smallListIsSorted() {
+        List<Integer> list = new ArrayList<>();
+        for(int i=10;i>0;i--) {
+            list.add(i);
+        }
+        ParallelSort.sort(list, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return i1.compareTo(i2);
+            }
+        });
+        for(int i=0;i<10;i++) {
+            assertEquals(i+1, list.get(i).intValue());
+        }
+    }
+
+}
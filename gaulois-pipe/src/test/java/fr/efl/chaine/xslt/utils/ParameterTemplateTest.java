@@ -0,0 +1,62 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.util.HashMap;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.type.ValidationException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import top.marchand.xml.gaulois.config.typing.DatatypeFactory;
+
+/**
+ * Tests ParameterTemplate
+ * @author cmarchand
+ */
+public class ParameterTemplateTest {
+    private static DatatypeFactory factory;
+
+    @BeforeClass
+    public static void beforeClass() throws ValidationException {
+        factory = DatatypeFactory.getInstance(Configuration.newConfiguration());
+    }
+
+    private static void put(HashMap<QName, ParameterValue> parameters, QName qn, Object value) {
+        parameters.put(qn, new ParameterValue(qn, value, factory.XS_STRING));
+    }
+
+    @Test
+    public void placeholdersAreReplaced() {
+        HashMap<QName, ParameterValue> parameters = new HashMap<>();
+        put(parameters, new QName("dir"), "out");
+        put(parameters, new QName("name"), "a$1\\b");
+        ParameterTemplate template = ParameterTemplate.compile("$[dir]/$[name].xml");
+        assertFalse(template.isConstant());
+        assertEquals("out/a$1\\b.xml", template.render(parameters));
+        assertSame(template, ParameterTemplate.compile("$[dir]/$[name].xml"));
+    }
+
+    @Test
+    public void unknownPlaceholdersAreKept() {
+        HashMap<QName, ParameterValue> parameters = new HashMap<>();
+        put(parameters, new QName("dir"), "out");
+        assertEquals("out/$[unknown]/$[", ParameterTemplate.compile("$[dir]/$[unknown]/$[").render(parameters));
+        assertTrue(ParameterTemplate.compile("no placeholder").isConstant());
+    }
+
+    @Test
+    public void valuesPlaceholdersAreReplaced() {
+        HashMap<QName, ParameterValue> parameters = new HashMap<>();
+        put(parameters, new QName("root"), "/data");
+        put(parameters, new QName("dir"), "$[root]/out");
+        put(parameters, new QName("p", "top:marchand", "name"), "file");
+        assertEquals("/data/out/file", ParameterTemplate.compile("$[dir]/$[p:name]").render(parameters));
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import fr.efl.chaine.xslt.config.CfgFile;
+import fr.efl.chaine.xslt.config.Sources;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests ProcessingHistory
+ * @author cmarchand
+ */
+public class ProcessingHistoryTest {
+    private static final File DIR = new File("target/generated-test-files/processing-history");
+
+    @Test
+    public void durationsAreReloaded() throws Exception {
+        File input = newInput("input.xml", "<doc/>");
+        File file = new File(DIR, "history");
+        file.delete();
+        ProcessingHistory history = new ProcessingHistory(file);
+        history.record(input, 1000L);
+        history.save();
+        ProcessingHistory reloaded = new ProcessingHistory(file);
+        assertEquals(1, reloaded.size());
+        assertEquals(1000L, reloaded.predict(input, input.length(), input.lastModified()));
+        // touched, but same content
+        assertEquals(1000L, reloaded.predict(input, input.length(), input.lastModified()+1000L));
+    }
+
+    @Test
+    public void unchangedInputIsNotHashed() throws Exception {
+        File input = newInput("unchanged.xml", "<doc/>");
+        File file = new File(DIR, "history-unchanged");
+        String line = input.length()+"\t"+input.lastModified()+"\tnot-a-hash\t1000\t"+input.getAbsolutePath()+"\n";
+        Files.write(file.toPath(), line.getBytes(StandardCharsets.UTF_8));
+        ProcessingHistory history = new ProcessingHistory(file);
+        history.record(input, 3000L);
+        history.save();
+        String saved = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        // stored hash is kept, and durations are averaged
+        assertEquals(input.length()+"\t"+input.lastModified()+"\tnot-a-hash\t2000\t"+input.getAbsolutePath()+"\n", saved);
+    }
+
+    @Test
+    public void longestFirst() throws Exception {
+        File small = newInput("small.xml", "<doc/>");
+        File big = newInput("big.xml", "<doc>a much bigger content, that would be processed first if ordered by size</doc>");
+        File unknown = newInput("unknown.xml", "<doc>no history</doc>");
+        ProcessingHistory history = new ProcessingHistory(new File(DIR, "history-unsaved"));
+        history.record(small, 5000L);
+        history.record(big, 10L);
+        Sources sources = new Sources("history", "desc");
+        sources.setHistory(history);
+        sources.addFile(new CfgFile(big));
+        sources.addFile(new CfgFile(unknown));
+        sources.addFile(new CfgFile(small));
+        List<CfgFile> files = sources.getFiles();
+        assertEquals(small, files.get(0).getSource());
+        // estimated from the average duration per byte : between small and big
+        assertEquals(unknown, files.get(1).getSource());
+        assertEquals(big, files.get(2).getSource());
+    }
+
+    private File newInput(String name, String content) throws Exception {
+        DIR.mkdirs();
+        File f = new File(DIR, name);
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+}
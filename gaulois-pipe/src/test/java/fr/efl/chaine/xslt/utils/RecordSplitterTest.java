@@ -0,0 +1,86 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.SAXParserFactory;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmNode;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import static org.junit.Assert.*;
+
+/**
+ * Tests RecordSplitter
+ * @author cmarchand
+ */
+public class RecordSplitterTest {
+    private static Processor processor;
+
+    @BeforeClass
+    public static void initialize() {
+        processor = new Processor(Configuration.newConfiguration());
+    }
+
+    private static List<XdmNode> split(String document, String splitOn, int splitSize) throws Exception {
+        final List<XdmNode> chunks = new ArrayList<>();
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(new RecordSplitter(processor.newDocumentBuilder(), splitOn, splitSize, new RecordSplitter.ChunkHandler() {
+            @Override
+            public void chunk(XdmNode chunk) throws SAXException {
+                chunks.add(chunk);
+            }
+        }));
+        reader.parse(new InputSource(new StringReader(document)));
+        return chunks;
+    }
+
+    private static String evaluate(String xpath, XdmNode node) throws Exception {
+        XPathCompiler compiler = processor.newXPathCompiler();
+        compiler.declareNamespace("r", "urn:records");
+        XPathSelector selector = compiler.compile(xpath).load();
+        selector.setContextItem(node);
+        return selector.evaluate().toString();
+    }
+
+    @Test
+    public void chunksKeepRootAndOrder() throws Exception {
+        StringBuilder sb = new StringBuilder("<r:records xmlns:r='urn:records' a='x'>");
+        for(int i=1;i<=7;i++) {
+            sb.append("<r:record n='").append(i).append("'/>");
+        }
+        sb.append("</r:records>");
+        List<XdmNode> chunks = split(sb.toString(), "{urn:records}record", 3);
+        assertEquals(3, chunks.size());
+        assertEquals("1,2,3", evaluate("string-join(/r:records[@a='x']/r:record/@n, ',')", chunks.get(0)));
+        assertEquals("4,5,6", evaluate("string-join(/r:records[@a='x']/r:record/@n, ',')", chunks.get(1)));
+        assertEquals("7", evaluate("string-join(/r:records[@a='x']/r:record/@n, ',')", chunks.get(2)));
+    }
+
+    @Test
+    public void localNameMatchesAnyNamespace() throws Exception {
+        List<XdmNode> chunks = split("<r:records xmlns:r='urn:records'><r:record/><r:record/></r:records>", "record", 1);
+        assertEquals(2, chunks.size());
+    }
+
+    @Test
+    public void noRecordProducesOneChunk() throws Exception {
+        List<XdmNode> chunks = split("<r:records xmlns:r='urn:records'/>", "record", 10);
+        assertEquals(1, chunks.size());
+        assertEquals("1", evaluate("count(/r:records)", chunks.get(0)));
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests ResultCache
+ * @author cmarchand
+ */
+public class ResultCacheTest {
+    private static final File DIR = new File("target/generated-test-files/result-cache-test");
+
+    @Before
+    public void clean() {
+        File[] entries = DIR.listFiles();
+        if(entries!=null) {
+            for(File entry: entries) {
+                for(File f: entry.listFiles()) f.delete();
+                entry.delete();
+            }
+        }
+    }
+
+    private static File writeFile(String name, int size) throws Exception {
+        File file = new File("target/generated-test-files", name);
+        file.getParentFile().mkdirs();
+        try(OutputStream os = new FileOutputStream(file)) {
+            os.write(new byte[size]);
+        }
+        return file;
+    }
+
+    @Test
+    public void storeAndRestore() throws Exception {
+        ResultCache cache = new ResultCache(DIR, 0);
+        File out1 = writeFile("rc-out1.xml", 10);
+        File out2 = writeFile("rc-out2.xml", 20);
+        assertFalse(cache.restore("k", Arrays.asList(out1, out2)));
+        cache.store("k", Arrays.asList(out1, out2));
+        out1.delete();
+        out2.delete();
+        assertTrue(cache.restore("k", Arrays.asList(out1, out2)));
+        assertEquals(10, out1.length());
+        assertEquals(20, out2.length());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        // entries are found again by a new cache on the same directory
+        assertEquals(1, new ResultCache(DIR, 0).size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        ResultCache cache = new ResultCache(DIR, 250);
+        File out = writeFile("rc-out.xml", 100);
+        cache.store("a", Collections.singletonList(out));
+        cache.store("b", Collections.singletonList(out));
+        // a is now more recently used than b
+        assertTrue(cache.restore("a", Collections.singletonList(out)));
+        cache.store("c", Collections.singletonList(out));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.restore("b", Collections.singletonList(out)));
+        assertTrue(cache.restore("a", Collections.singletonList(out)));
+        assertTrue(cache.restore("c", Collections.singletonList(out)));
+        assertFalse(new File(DIR, "b").exists());
+    }
+}
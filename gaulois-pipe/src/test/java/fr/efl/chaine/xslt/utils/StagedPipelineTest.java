@@ -0,0 +1,151 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests StagedPipeline
+ * @author cmarchand
+ */
+public class StagedPipelineTest {
+    private static DocumentBuilder builder;
+
+    @BeforeClass
+    public static void initialize() {
+        builder = new Processor(Configuration.newConfiguration()).newDocumentBuilder();
+    }
+
+    /**
+     * A stage that wraps its input in a new element
+     */
+    private static StagedPipeline.Stage<String> wrapper(final String name) {
+        return new StagedPipeline.Stage<String>() {
+            @Override
+            public XdmNode process(String context, XdmNode input) throws Exception {
+                Thread.sleep(20);
+                return builder.build(new StreamSource(new StringReader("<"+name+">"+input.toString()+"</"+name+">")));
+            }
+        };
+    }
+
+    @Test
+    public void stagesAreAppliedInOrder() throws Exception {
+        List<StagedPipeline.Stage<String>> stages = new ArrayList<>();
+        stages.add(wrapper("a"));
+        stages.add(wrapper("b"));
+        stages.add(wrapper("c"));
+        final StagedPipeline<String> pipeline = new StagedPipeline<>(stages, 1, Executors.defaultThreadFactory());
+        ExecutorService service = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<XdmNode>> results = new ArrayList<>();
+            for(int i=0;i<8;i++) {
+                final String doc = "<doc n=\""+i+"\"/>";
+                results.add(service.submit(new Callable<XdmNode>() {
+                    @Override
+                    public XdmNode call() throws Exception {
+                        return pipeline.run(doc, builder.build(new StreamSource(new StringReader(doc))));
+                    }
+                }));
+            }
+            for(int i=0;i<8;i++) {
+                String result = results.get(i).get().toString().replaceAll("\\s", "");
+                assertEquals("<c><b><a><docn=\""+i+"\"/></a></b></c>", result);
+            }
+        } finally {
+            service.shutdown();
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void failureIsThrownToCaller() throws Exception {
+        List<StagedPipeline.Stage<String>> stages = new ArrayList<>();
+        stages.add(wrapper("a"));
+        stages.add(new StagedPipeline.Stage<String>() {
+            @Override
+            public XdmNode process(String context, XdmNode input) throws Exception {
+                throw new SaxonApiException("stage failed on "+context);
+            }
+        });
+        stages.add(wrapper("c"));
+        StagedPipeline<String> pipeline = new StagedPipeline<>(stages, 1, Executors.defaultThreadFactory());
+        try {
+            pipeline.run("doc", builder.build(new StreamSource(new StringReader("<doc/>"))));
+            fail("stage failure not thrown");
+        } catch(SaxonApiException ex) {
+            assertEquals("stage failed on doc", ex.getMessage());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shutdownReleasesCallers() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch never = new CountDownLatch(1);
+        List<StagedPipeline.Stage<String>> stages = new ArrayList<>();
+        stages.add(new StagedPipeline.Stage<String>() {
+            @Override
+            public XdmNode process(String context, XdmNode input) throws Exception {
+                started.countDown();
+                // interruption is ignored, as a stage that does not end
+                while(true) {
+                    try {
+                        never.await();
+                    } catch(InterruptedException ex) {
+                        // continue waiting
+                    }
+                }
+            }
+        });
+        final StagedPipeline<String> pipeline = new StagedPipeline<>(stages, 1, Executors.defaultThreadFactory());
+        ExecutorService service = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<XdmNode>> results = new ArrayList<>();
+            for(int i=0;i<3;i++) {
+                final String doc = "<doc n=\""+i+"\"/>";
+                results.add(service.submit(new Callable<XdmNode>() {
+                    @Override
+                    public XdmNode call() throws Exception {
+                        return pipeline.run(doc, builder.build(new StreamSource(new StringReader(doc))));
+                    }
+                }));
+            }
+            started.await();
+            pipeline.shutdown();
+            for(Future<XdmNode> result: results) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("shutdown not thrown");
+                } catch(ExecutionException ex) {
+                    assertTrue(ex.getCause() instanceof SaxonApiException);
+                }
+            }
+        } finally {
+            service.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * This Source Code Form is subject to the terms of
+ * the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You
+ * can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package fr.efl.chaine.xslt.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XsltCompiler;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests XsltCache
+ * @author cmarchand
+ */
+public class XsltCacheTest {
+
+    @Test
+    public void compiledOnlyOnce() throws Exception {
+        final XsltCompiler compiler = new Processor(Configuration.newConfiguration()).newXsltCompiler();
+        final XsltCache cache = new XsltCache();
+        final AtomicInteger compilations = new AtomicInteger();
+        final Callable<CompiledXsl> compile = new Callable<CompiledXsl>() {
+            @Override
+            public CompiledXsl call() throws Exception {
+                compilations.incrementAndGet();
+                Thread.sleep(200);
+                return new CompiledXsl(compiler.compile(new StreamSource(new File("src/test/resources/identity.xsl"))), "identity.xsl", null);
+            }
+        };
+        ExecutorService service = Executors.newFixedThreadPool(16);
+        List<Future<CompiledXsl>> results = new ArrayList<>();
+        for(int i=0;i<16;i++) {
+            results.add(service.submit(new Callable<CompiledXsl>() {
+                @Override
+                public CompiledXsl call() throws Exception {
+                    return cache.get("identity.xsl", compile);
+                }
+            }));
+        }
+        CompiledXsl first = results.get(0).get();
+        for(Future<CompiledXsl> f:results) {
+            assertSame(first, f.get());
+        }
+        service.shutdown();
+        assertEquals(1, compilations.get());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getMisses());
+        assertEquals(15, cache.getHits());
+    }
+
+    @Test
+    public void failureIsNotCached() throws Exception {
+        XsltCache cache = new XsltCache();
+        Callable<CompiledXsl> failing = new Callable<CompiledXsl>() {
+            @Override
+            public CompiledXsl call() throws Exception {
+                throw new SaxonApiException("does not compile");
+            }
+        };
+        try {
+            cache.get("failing.xsl", failing);
+            fail("compilation error not thrown");
+        } catch(SaxonApiException ex) {
+            assertEquals("does not compile", ex.getMessage());
+        }
+        assertEquals(0, cache.size());
+    }
+}
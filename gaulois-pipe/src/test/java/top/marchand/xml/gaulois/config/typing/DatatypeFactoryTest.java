@@ -6,6 +6,7 @@
  */
 package top.marchand.xml.gaulois.config.typing;
 
+import java.io.File;
 import java.math.BigInteger;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.s9api.QName;
@@ -97,4 +98,33 @@ public class DatatypeFactoryTest {
         assertEquals(inputValue, value.toString());
     }
     
+    @Test
+    public void builtinDatatypesAreShared() throws ValidationException {
+        Datatype dt = instance.getDatatype(new QName(DatatypeFactory.NS_XSD, "xs:date*"));
+        assertTrue("xs:date* does not allow multiple", dt.allowsMultiple());
+        assertTrue("xs:date* does not allow empty", dt.allowsEmpty());
+        // prefix is not significant
+        assertSame(dt, instance.getDatatype(new QName(DatatypeFactory.NS_XSD, "xsd:date*")));
+        assertSame(instance.XS_STRING, instance.getDatatype(new QName(DatatypeFactory.NS_XSD, "xs:string")));
+    }
+    
+    @Test
+    public void getValueForElements() throws ValidationException {
+        Datatype dt = instance.getDatatype(new QName("element()*"));
+        XdmValue value = dt.convert("<a/><b>text</b>", saxonConfiguration);
+        assertEquals("<a/><b>text</b> do not produces two nodes", 2, value.size());
+        value = dt.convert("<c/>", saxonConfiguration);
+        assertEquals("<c/> do not produces a single node", 1, value.size());
+    }
+    
+    @Test
+    public void getValueForDocument() throws ValidationException {
+        Datatype dt = instance.getDatatype(new QName("document()"));
+        File input = new File("src/test/resources/expected.xml");
+        XdmValue value = dt.convert(input.getAbsoluteFile().toURI().toString(), saxonConfiguration);
+        assertEquals("document is not loaded", 1, value.size());
+        value = dt.convert(input.getPath(), saxonConfiguration);
+        assertEquals("document is not loaded from path", 1, value.size());
+    }
+    
 }